@@ -1,12 +1,22 @@
 package eu.scape_project.pt;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -16,14 +26,26 @@ import org.apache.hadoop.fs.Path;
 
 import eu.scape_project.pt.proc.Processor;
 import eu.scape_project.pt.proc.StreamProcessor;
+import eu.scape_project.pt.proc.StreamPump;
 import eu.scape_project.pt.proc.ToolProcessor;
+import eu.scape_project.pt.proc.WorkerPool;
 import eu.scape_project.pt.repo.Repository;
 import eu.scape_project.pt.repo.ToolRepository;
 import eu.scape_project.pt.util.CmdLineParser;
 import eu.scape_project.pt.util.Command;
 import eu.scape_project.pt.util.PipedArgsParser;
 import eu.scape_project.pt.util.PropertyNames;
+import eu.scape_project.pt.util.RuntimeHistory;
+import eu.scape_project.pt.util.SpillingOutputStream;
+import eu.scape_project.pt.util.fs.ArchiveFiler;
+import eu.scape_project.pt.util.fs.FifoStream;
 import eu.scape_project.pt.util.fs.Filer;
+import eu.scape_project.pt.util.fs.LocalizationCache;
+import eu.scape_project.pt.util.fs.OutputContainer;
+import eu.scape_project.pt.util.fs.StreamCodecs;
+import eu.scape_project.pt.util.fs.TransferExecutor;
+import eu.scape_project.pt.util.warc.WebArchiveReader;
+import eu.scape_project.pt.util.warc.WebArchiveRecord;
 import eu.scape_project.tool.toolwrapper.data.tool_spec.Operation;
 import eu.scape_project.tool.toolwrapper.data.tool_spec.Tool;
 
@@ -31,79 +53,280 @@ import eu.scape_project.tool.toolwrapper.data.tool_spec.Tool;
 public class ToolWrapper {
     private static final String SEP = " ";
 
+    /**
+     * Maximum number of output bytes put into the message of a failure.
+     */
+    private static final int MAX_ERROR_OUTPUT = 64 * 1024;
+
+    private static final String DEFAULT_RECORD_TYPES = "response,resource";
+
     private CmdLineParser parser;
     private Repository repo;
     private Tool tool;
     private Operation operation;
+    private boolean pipeFusion;
+    private Configuration conf;
+    private WorkerPool workerPool;
+    private int stdoutMemory;
+    private int stderrSize;
+
+    /**
+     * WARC-Types of the records processed, all if null.
+     */
+    private Set<String> recordTypes;
+
+    /**
+     * Container collecting the output files, written to their targets if null.
+     */
+    private OutputContainer outputContainer;
+
+    /**
+     * Codecs applied to stdin and stdout redirections.
+     */
+    private StreamCodecs streamCodecs;
+
+    /**
+     * Records the runtimes of the executed control lines if not null.
+     */
+    private RuntimeHistory runtimes;
+
+    /**
+     * Tools already read from the repository, by name.
+     */
+    private final Map<String, Tool> tools = new HashMap<String, Tool>();
 
-    private final Log LOG = LogFactory.getLog(ToolWrapper.class);
+    private static final Log LOG = LogFactory.getLog(ToolWrapper.class);
 
     /**
      * Sets up toolspec repository and parser.
      */
     //public void setup(Context context) throws IOException {
     public void setup(Configuration conf) throws IOException {
+        this.conf = conf;
         String strRepo = conf.get(PropertyNames.REPO_LOCATION);
         Path fRepo = new Path(strRepo);
         FileSystem fs = FileSystem.get(conf);
         this.repo = new ToolRepository(fs, fRepo);
+        this.pipeFusion = conf.getBoolean(PropertyNames.PIPE_FUSION, true);
+        StreamPump.configure(
+                conf.getInt(PropertyNames.PUMP_BUFFER_SIZE, StreamPump.DEFAULT_BUFFER_SIZE),
+                conf.getInt(PropertyNames.PUMP_THREADS, StreamPump.DEFAULT_MAX_THREADS));
+        LocalizationCache.configure(conf.get(PropertyNames.CACHE_DIR),
+                conf.getLong(PropertyNames.CACHE_SIZE, LocalizationCache.DEFAULT_SIZE));
+        TransferExecutor.configure(
+                conf.getInt(PropertyNames.TRANSFER_THREADS, TransferExecutor.DEFAULT_THREADS));
+        this.stdoutMemory = conf.getInt(PropertyNames.STDOUT_MEMORY, 
+                SpillingOutputStream.DEFAULT_THRESHOLD);
+        this.stderrSize = conf.getInt(PropertyNames.STDERR_SIZE, 
+                ToolProcessor.DEFAULT_STDERR_SIZE);
+        String strTypes = conf.get(PropertyNames.RECORD_TYPES, DEFAULT_RECORD_TYPES).trim();
+        this.recordTypes = strTypes.isEmpty() ? null 
+            : new HashSet<String>(Arrays.asList(strTypes.split("\\s*,\\s*")));
+        this.streamCodecs = new StreamCodecs(conf);
 
         // create parser of command line input arguments
         parser = new PipedArgsParser();
     }
 
+    /**
+     * Wraps a control line, using the process' working directory
+     * for localized files.
+     */
     public String wrap(String controlline) throws Exception {
-        // parse input line for stdin/out file refs and tool/action commands
-        parser.parse(controlline);
+        return wrap(controlline, defaultWorkingDir());
+    }
 
-        final Command[] commands = parser.getCommands();
-        final String strStdinFile = parser.getStdinFile();
-        final String strStdoutFile = parser.getStdoutFile();
+    /**
+     * Wraps a control line, localizing its file references to and running
+     * its tools in the given working directory. 
+     *
+     * @param controlline line describing the (piped) command(s) and stdin/out file refs
+     * @param workingDir local directory to use for this control line
+     */
+    public String wrap(String controlline, String workingDir) throws Exception {
+        SpillingOutputStream result = wrapToStream(controlline, workingDir);
+        try {
+            return result.toString();
+        } finally {
+            result.delete();
+        }
+    }
 
-        Processor firstProcessor = null;
-        ToolProcessor lastProcessor = null; 
+    /**
+     * Wraps a control line like {@link #wrap(String, String)} but returns
+     * the result as a stream which keeps large output on local disk.
+     * The caller has to {@link SpillingOutputStream#delete()} it.
+     *
+     * @param controlline line describing the (piped) command(s) and stdin/out file refs
+     * @param workingDir local directory to use for this control line
+     * @return the output of the last command or the stdout file reference
+     */
+    public SpillingOutputStream wrapToStream(String controlline, String workingDir) throws Exception {
+        return wrapToStream(controlline, workingDir, null);
+    }
 
-        Map<String, String>[] mapOutputFileParameters = new HashMap[commands.length];
+    /**
+     * Wraps a control line, feeding stdin instead of its stdin file 
+     * reference to the first command if given.
+     */
+    private SpillingOutputStream wrapToStream(String controlline, String workingDir, 
+            InputStream stdin) throws Exception {
+        Invocation invocation = prepare(controlline, workingDir);
+        invocation.stdin = stdin;
+        try {
+            localize(invocation);
+            SpillingOutputStream result = execute(invocation);
+            try {
+                delocalize(invocation);
+            } catch (Exception ex) {
+                result.delete();
+                throw ex;
+            }
+            return result;
+        } finally {
+            invocation.release();
+        }
+    }
 
-        for(int c = 0; c < commands.length; c++ ) {
-            Command command = commands[c];
+    /**
+     * A control line prepared by {@link ToolWrapper#prepare(String, String)}.
+     * Its phases {@link ToolWrapper#localize(Invocation)},
+     * {@link ToolWrapper#execute(Invocation)} and
+     * {@link ToolWrapper#delocalize(Invocation)} may be run by other threads
+     * than the one preparing it, but one after another.
+     */
+    public static class Invocation {
+        private final String workingDir;
+        private Command[] commands;
+        private String strStdinFile;
+        private String strStdoutFile;
+        private String strWorkerCmd;
+        private Processor firstProcessor;
+        private ToolProcessor lastProcessor;
+        private Map<String, String>[] mapOutputFileParameters;
+
+        /**
+         * Filers of the file references to localize.
+         */
+        private final List<Filer> filers = new ArrayList<Filer>();
+
+        /**
+         * Filers of the file references streamed through named pipes.
+         */
+        private final List<Filer> fifoFilers = new ArrayList<Filer>();
+
+        private final List<FifoStream> fifos = new ArrayList<FifoStream>();
+
+        /**
+         * Replaces the stdin file reference, eg. by a record's payload.
+         */
+        private InputStream stdin;
+
+        /**
+         * Number of bytes read from the stdin file reference.
+         */
+        private long stdinBytes;
+
+        private Invocation(String workingDir) {
+            this.workingDir = workingDir;
+        }
 
-            tool = repo.getTool(command.getTool());
+        /**
+         * Gets the number of bytes of the localized files except archive 
+         * members, the files of directories counted recursively.
+         */
+        public long getLocalBytes() throws IOException {
+            long bytes = 0;
+            for( Filer filer : filers ) {
+                if( filer.isLocal() || filer instanceof ArchiveFiler ) continue;
+                bytes += filer.getLength();
+            }
+            return bytes;
+        }
 
-            lastProcessor = new ToolProcessor(tool);
+        /**
+         * Gets the number of bytes of the archives of the localized archive
+         * members.
+         *
+         * @return map of archive reference -> bytes
+         */
+        public Map<String, Long> getArchiveBytes() throws IOException {
+            Map<String, Long> archives = new HashMap<String, Long>();
+            for( Filer filer : filers ) {
+                if( !(filer instanceof ArchiveFiler) ) continue;
+                ArchiveFiler member = (ArchiveFiler)filer;
+                if( !archives.containsKey(member.getArchiveRef()) ) {
+                    archives.put(member.getArchiveRef(), member.getArchiveLength());
+                }
+            }
+            return archives;
+        }
 
-            operation = lastProcessor.findOperation(command.getAction());
-            if( operation == null )
-                throw new IOException(
-                        "operation " + command.getAction() + " not found");
+        /**
+         * Releases named pipes left by a failed or skipped execution.
+         */
+        public void release() {
+            try {
+                closeFifos(fifos);
+            } catch (IOException ex) {
+                LOG.debug("closing named pipes failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Parses a control line and sets up its processors without any I/O.
+     *
+     * @param controlline line describing the (piped) command(s) and stdin/out file refs
+     * @param workingDir local directory to use for this control line
+     */
+    public Invocation prepare(String controlline, String workingDir) throws Exception {
+        Invocation inv = new Invocation(workingDir);
+
+        // parse input line for stdin/out file refs and tool/action commands
+        parser.parse(controlline);
+
+        final Command[] commands = inv.commands = parser.getCommands();
+        inv.strStdinFile = parser.getStdinFile();
+        inv.strStdoutFile = parser.getStdoutFile();
+
+        inv.mapOutputFileParameters = new HashMap[commands.length];
 
-            lastProcessor.setOperation(operation);
+        // a single command without stdin may be executed by a warm worker
+        inv.strWorkerCmd = commands.length == 1 && inv.strStdinFile == null
+            ? workerCommand(commands[0]) : null;
+        // workers run elsewhere, so they need absolute file references
+        final boolean absolute = inv.strWorkerCmd != null;
 
-            lastProcessor.initialize();
+        for(int c = 0; c < commands.length; c++ ) {
+            Command command = commands[c];
 
-            lastProcessor.setParameters(command.getPairs());
-            lastProcessor.setWorkingDir(workingDir());
+            ToolProcessor lastProcessor = createProcessor(command, workingDir);
+            inv.lastProcessor = lastProcessor;
 
             // get parameters accepted by the lastProcessor.
-            Map<String, String> mapInputFileParameters = lastProcessor.getInputFileParameters(); 
-            mapOutputFileParameters[c] = lastProcessor.getOutputFileParameters(); 
+            Map<String, String> mapInputFileParameters = lastProcessor.getInputFileParameters();
+            inv.mapOutputFileParameters[c] = lastProcessor.getOutputFileParameters();
 
             // copy parameters to temporal map
-            Map<String, String> mapTempInputFileParameters = 
+            Map<String, String> mapTempInputFileParameters =
                 new HashMap<String, String>(mapInputFileParameters);
 
             // localize parameters
             for( Entry<String, String> entry : mapInputFileParameters.entrySet()) {
                 LOG.debug("input = " + entry.getValue());
-                String localFileRefs = localiseFileRefs(entry.getValue());
+                String localFileRefs = localiseFileRefs(entry.getValue(), workingDir, absolute,
+                        false, inv.filers, 
+                        isFifoInput(command, entry.getKey()) ? inv.fifoFilers : null);
                 mapTempInputFileParameters.put( entry.getKey(), localFileRefs.substring(1));
             }
 
-            Map<String, String> mapTempOutputFileParameters = 
-                new HashMap<String, String>(mapOutputFileParameters[c]);
-            for( Entry<String, String> entry : mapOutputFileParameters[c].entrySet()) {
+            Map<String, String> mapTempOutputFileParameters =
+                new HashMap<String, String>(inv.mapOutputFileParameters[c]);
+            for( Entry<String, String> entry : inv.mapOutputFileParameters[c].entrySet()) {
                 LOG.debug("output = " + entry.getValue());
-                String localFileRefs = localiseFileRefs(entry.getValue());
+                String localFileRefs = localiseFileRefs(entry.getValue(), workingDir, absolute,
+                        true, inv.filers, null);
                 mapTempOutputFileParameters.put( entry.getKey(), localFileRefs.substring(1));
             }
 
@@ -112,95 +335,550 @@ public class ToolWrapper {
             lastProcessor.setOutputFileParameters(mapTempOutputFileParameters);
 
             // chain processor
-            if(firstProcessor == null )
-                firstProcessor = lastProcessor;
+            if(inv.firstProcessor == null )
+                inv.firstProcessor = lastProcessor;
             else {
-                Processor help = firstProcessor;  
+                Processor help = inv.firstProcessor;
                 while ( help.next() != null ) {
                     help = help.next();
                 }
                 help.next(lastProcessor);
             }
         }
+        return inv;
+    }
+
+    /**
+     * Localizes the file references of a prepared control line, all of
+     * them together.
+     */
+    public void localize(Invocation inv) throws Exception {
+        List<Callable<Void>> transfers = localizations(inv.filers);
+        createFifos(inv.fifoFilers, inv.fifos, transfers);
+        TransferExecutor.runAll(transfers);
+    }
+
+    /**
+     * Executes a localized control line.
+     *
+     * @return the output of the last command or the stdout file reference,
+     *         the caller has to {@link SpillingOutputStream#delete()} it
+     */
+    public SpillingOutputStream execute(Invocation inv) throws Exception {
+        // output files don't exist yet, so these are the input files
+        long inputBytes = runtimes != null ? inv.getLocalBytes() : 0;
+        Map<String, Long> archiveBytes = runtimes != null ? inv.getArchiveBytes() : null;
+        long start = System.nanoTime();
+        Processor firstProcessor = inv.firstProcessor;
+        SpillingOutputStream result = new SpillingOutputStream(stdoutMemory, null);
+        int retVal;
+        try {
+            OutputStream oStdout = inv.strStdoutFile != null
+                ? streamCodecs.compress(inv.strStdoutFile,
+                        Filer.create(inv.strStdoutFile, conf).getOutputStream())
+                : result;
+            if( inv.strWorkerCmd != null ) {
+                try {
+                    retVal = workerPool.execute(workerKey(inv.commands[0]), inv.strWorkerCmd,
+                            inv.lastProcessor.getCommandLine(), oStdout);
+                } finally {
+                    oStdout.close();
+                }
+            } else {
+                // Processors for stdin and stdout
+                StreamProcessor streamProcessorIn = inv.stdin != null
+                    ? new StreamProcessor(inv.stdin) 
+                    : createStreamProcessorIn(inv);
+                if( streamProcessorIn != null ) {
+                    streamProcessorIn.next(firstProcessor);
+                    firstProcessor = streamProcessorIn;
+                }
+
+                StreamProcessor streamProcessorOut = new StreamProcessor(oStdout);
+                inv.lastProcessor.next(streamProcessorOut);
+
+                retVal = firstProcessor.execute();
+            }
+            closeFifos(inv.fifos);
+
+            if( inv.strStdoutFile != null )
+                result.write(inv.strStdoutFile.getBytes());
+
+            String stderr = collectStderr(firstProcessor);
+            if (retVal != 0)
+                throw new RuntimeException(result.head(MAX_ERROR_OUTPUT) + stderr);
+            if( !stderr.isEmpty() ) LOG.debug(stderr);
+        } catch (Exception ex) {
+            result.delete();
+            throw ex;
+        }
+        // bytes of records and named pipes are not known
+        if( runtimes != null && inv.stdin == null && inv.fifoFilers.isEmpty() ) {
+            runtimes.add(RuntimeHistory.key(inv.commands), inputBytes + inv.stdinBytes,
+                    archiveBytes, (System.nanoTime() - start) / 1e9);
+        }
+
+        return result;
+    }
+
+    /**
+     * Delocalizes the output files of an executed control line.
+     */
+    public void delocalize(Invocation inv) throws Exception {
+        delocalizeOutputParameters(inv.mapOutputFileParameters, inv.workingDir);
+    }
+
+    /**
+     * Receives the results of the records of a WARC or ARC file.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handles the result of a record, which is deleted afterwards.
+         */
+        void handle(WebArchiveRecord record, SpillingOutputStream result) throws IOException;
+
+        /**
+         * Handles the failure of a record.
+         */
+        void failed(WebArchiveRecord record, Exception ex) throws IOException;
+    }
+
+    /**
+     * Checks whether a control line reads the records of a WARC or ARC
+     * file from stdin, see {@link #wrapRecords(String, String, RecordHandler)}.
+     */
+    public boolean isRecordLine(String controlline) {
+        try {
+            parser.parse(controlline);
+        } catch (Exception ex) {
+            return false;
+        }
+        return WebArchiveReader.isRecordsRef(parser.getStdinFile());
+    }
+
+    /**
+     * Wraps a control line whose stdin references the records of a WARC or
+     * ARC file, eg. <code>"warc:hdfs:///crawl.warc.gz" &gt; tool action</code>,
+     * once for each record. The payload of a record is streamed to the 
+     * first command's stdin. If the reference has a range, only the
+     * records starting within the range are wrapped.
+     *
+     * @param controlline line describing the (piped) command(s) and the records
+     * @param workingDir local directory to use for this control line
+     * @param handler receives the result of each record
+     */
+    public void wrapRecords(String controlline, String workingDir, RecordHandler handler) 
+            throws Exception {
+        parser.parse(controlline);
+        String strRecords = parser.getStdinFile();
+        if( !WebArchiveReader.isRecordsRef(strRecords) )
+            throw new IOException("no records referenced by " + controlline);
+        if( parser.getStdoutFile() != null )
+            throw new IOException("the results of records cannot be redirected to a file: " 
+                    + controlline);
+        String strFile = WebArchiveReader.getFileRef(strRecords);
+        long[] range = WebArchiveReader.getRange(strRecords);
+        WebArchiveReader reader = new WebArchiveReader(
+                Filer.create(strFile, conf).getInputStream(),
+                WebArchiveReader.isCompressed(strFile),
+                range != null ? range[0] : 0, range != null ? range[1] : Long.MAX_VALUE,
+                recordTypes);
+        try {
+            WebArchiveRecord record;
+            while( (record = reader.next()) != null ) {
+                LOG.debug("record " + record.getId() + " at " + record.getOffset());
+                SpillingOutputStream result;
+                try {
+                    result = wrapToStream(controlline, workingDir, record.getPayload());
+                } catch (Exception ex) {
+                    handler.failed(record, ex);
+                    continue;
+                }
+                try {
+                    handler.handle(record, result);
+                } finally {
+                    result.delete();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Creates a ToolProcessor for the command's tool and action and
+     * sets its parameters.
+     */
+    private ToolProcessor createProcessor(Command command, String workingDir) throws IOException {
+        tool = getTool(command.getTool());
+
+        ToolProcessor processor = new ToolProcessor(tool);
+
+        operation = processor.findOperation(command.getAction());
+        if( operation == null )
+            throw new IOException(
+                    "operation " + command.getAction() + " not found");
+
+        processor.setOperation(operation);
+        processor.setPipeFusion(pipeFusion);
+        processor.setExecMode(execMode(command));
+        processor.setStderrSize(stderrSize);
+
+        processor.initialize();
+
+        processor.setParameters(command.getPairs());
+        processor.setWorkingDir(workingDir);
+        return processor;
+    }
+
+    /**
+     * Sets the pool of warm workers to execute operations configured with 
+     * a worker command. Without a pool all operations are executed by 
+     * starting their command.
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Sets the container collecting the output files of remote file
+     * references, shared by all ToolWrappers of a task.
+     */
+    public void setOutputContainer(OutputContainer outputContainer) {
+        this.outputContainer = outputContainer;
+    }
+
+    /**
+     * Sets the history recording the runtimes of the executed control 
+     * lines, shared by all ToolWrappers of a task.
+     */
+    public void setRuntimeHistory(RuntimeHistory runtimes) {
+        this.runtimes = runtimes;
+    }
+
+    /**
+     * Gets the command starting a worker for the command's operation or null.
+     */
+    private String workerCommand(Command command) {
+        if( workerPool == null ) return null;
+        return conf.get(PropertyNames.WORKER + "." + workerKey(command));
+    }
 
-        // Processors for stdin and stdout
-        StreamProcessor streamProcessorIn = createStreamProcessorIn(strStdinFile);
-        if( streamProcessorIn != null ) {
-            streamProcessorIn.next(firstProcessor);
-            firstProcessor = streamProcessorIn;
-        } 
+    private static String workerKey(Command command) {
+        return command.getTool() + "." + command.getAction();
+    }
+
+    /**
+     * Gets the configured execution mode of a command, an operation's
+     * setting overrides the general one.
+     */
+    private ToolProcessor.ExecMode execMode(Command command) {
+        String mode = conf.get(
+                PropertyNames.EXEC_MODE + "." + command.getTool() + "." + command.getAction(),
+                conf.get(PropertyNames.EXEC_MODE, ToolProcessor.ExecMode.AUTO.name()));
+        return ToolProcessor.ExecMode.valueOf(mode.trim().toUpperCase(Locale.ENGLISH));
+    }
 
-        OutputStream oStdout = createStdOut(strStdoutFile);
-        StreamProcessor streamProcessorOut = new StreamProcessor(oStdout);
-        lastProcessor.next(streamProcessorOut);
+    /**
+     * Gets a tool from the repository, parsing its toolspec only once.
+     */
+    private Tool getTool(String name) throws IOException {
+        Tool t = tools.get(name);
+        if( t == null ) {
+            t = repo.getTool(name);
+            tools.put(name, t);
+        }
+        return t;
+    }
 
-        int retVal = firstProcessor.execute();
+    /**
+     * Checks whether any operation is configured to be batchable.
+     */
+    public boolean isBatchingEnabled() {
+        for( Entry<String, String> entry : conf ) {
+            if( entry.getKey().startsWith(PropertyNames.BATCH + ".")
+                    && !entry.getKey().equals(PropertyNames.BATCH_SIZE)
+                    && Boolean.parseBoolean(entry.getValue()) )
+                return true;
+        }
+        return false;
+    }
 
-        String text = convertToResult(oStdout, strStdoutFile);
+    /**
+     * Gets a key which is equal for control lines that can be executed
+     * together in one batch by {@link #wrapBatch(List, String)}, or null if 
+     * the control line cannot be batched.
+     *
+     * A control line can be batched if its only command's operation is 
+     * configured to be batchable, it has no stdin or stdout redirection, 
+     * no output file parameters and exactly one input file parameter
+     * with a single file reference. 
+     */
+    public String batchKey(String controlline) throws IOException {
+        parser.parse(controlline);
+        Command[] commands = parser.getCommands();
+        if( commands.length != 1 
+                || parser.getStdinFile() != null 
+                || parser.getStdoutFile() != null )
+            return null;
+        Command command = commands[0];
+        if( !conf.getBoolean(PropertyNames.BATCH + "." + command.getTool() 
+                    + "." + command.getAction(), false) )
+            return null;
+
+        ToolProcessor processor = createProcessor(command, defaultWorkingDir());
+        String inputName = batchInputName(processor);
+        if( inputName == null ) 
+            return null;
+        for( String value : processor.getOutputFileParameters().values() ) {
+            if( value != null ) return null;
+        }
+        return command.getTool() + SEP + command.getAction() + SEP + inputName
+            + SEP + new TreeMap<String, String>(processor.getOtherParameters());
+    }
 
+    /**
+     * Gets the name of the only input file parameter with a single file 
+     * reference or null.
+     */
+    private static String batchInputName(ToolProcessor processor) {
+        String inputName = null;
+        for( Entry<String, String> entry : processor.getInputFileParameters().entrySet() ) {
+            if( entry.getValue() == null ) continue;
+            if( inputName != null || entry.getValue().trim().contains(SEP) )
+                return null;
+            inputName = entry.getKey();
+        }
+        return inputName;
+    }
+
+    /**
+     * Wraps control lines with equal {@link #batchKey(String)} by a single 
+     * invocation of their tool with all input files. The tool's output 
+     * has to contain one line per input file in the order of the input files.
+     *
+     * @param controllines control lines with equal batch keys
+     * @param workingDir local directory to use for the batch
+     * @return results, one for each control line
+     * @throws IOException if the tool's output cannot be split into 
+     *         results of the control lines
+     */
+    public List<String> wrapBatch(List<String> controllines, String workingDir) throws Exception {
+        ToolProcessor processor = null;
+        String inputName = null;
+        StringBuilder localFileRefs = new StringBuilder();
+        List<Filer> filers = new ArrayList<Filer>();
+        for( String controlline : controllines ) {
+            parser.parse(controlline);
+            Command command = parser.getCommands()[0];
+            if( processor == null ) {
+                processor = createProcessor(command, workingDir);
+                inputName = batchInputName(processor);
+            }
+            String remoteFileRef = command.getPairs().get(inputName).trim();
+            localFileRefs.append(localiseFileRefs(remoteFileRef, workingDir, false, 
+                        false, filers, null));
+        }
+        TransferExecutor.runAll(localizations(filers));
+
+        Map<String, String> mapInputFileParameters = 
+            new HashMap<String, String>(processor.getInputFileParameters());
+        mapInputFileParameters.put(inputName, localFileRefs.substring(1));
+        processor.setInputFileParameters(mapInputFileParameters);
+
+        ByteArrayOutputStream oStdout = new ByteArrayOutputStream();
+        processor.next(new StreamProcessor(oStdout));
+
+        LOG.info("executing a batch of " + controllines.size() + " control lines");
+        int retVal = processor.execute();
+
+        String text = new String(oStdout.toByteArray());
+        String stderr = collectStderr(processor);
         if (retVal != 0)
-            throw new RuntimeException(text);
+            throw new RuntimeException(text + stderr);
+        if( !stderr.isEmpty() ) LOG.debug(stderr);
+
+        List<String> results = new ArrayList<String>();
+        for( String line : text.split("\r?\n") ) {
+            results.add(line + "\n");
+        }
+        if( results.size() != controllines.size() )
+            throw new IOException("batch output has " + results.size() 
+                    + " lines for " + controllines.size() + " control lines");
+        return results;
+    }
 
-        delocalizeOutputParameters(mapOutputFileParameters);
+    /**
+     * Collects the stderr of the executed tools of a processor chain.
+     *
+     * @return stderr of each tool preceded by its command or an empty String
+     */
+    private static String collectStderr(Processor first) throws InterruptedException {
+        StringBuilder sb = new StringBuilder();
+        for( Processor p = first; p != null; p = p.next() ) {
+            if( !(p instanceof ToolProcessor) ) continue;
+            String stderr = ((ToolProcessor)p).getStderr();
+            if( stderr == null || stderr.isEmpty() ) continue;
+            sb.append("\nstderr of ").append(((ToolProcessor)p).getCommandLine())
+                .append(":\n").append(stderr);
+        }
+        return sb.toString();
+    }
 
-        return text;
+    /**
+     * Checks whether an input of the command's operation is configured to 
+     * be streamed through a named pipe.
+     */
+    private boolean isFifoInput(Command command, String input) {
+        return conf.getBoolean(PropertyNames.FIFO + "." + command.getTool() 
+                + "." + command.getAction() + "." + input, false);
     }
 
-    private static String localiseFileRefs(String localFile) throws IOException {
+    /**
+     * Gets the local file references of remote ones and adds their filers
+     * to filers or, if given, to fifoFilers.
+     *
+     * @param output whether the files are output files the tool may write
+     * @return local file references, each preceded by a separator
+     */
+    private String localiseFileRefs(String localFile, String workingDir, 
+            boolean absolute, boolean output, List<Filer> filers, List<Filer> fifoFilers) 
+            throws IOException {
         String[] remoteFileRefs = localFile.split(SEP);
         StringBuilder localFileRefs = new StringBuilder();
-        String workingDir = workingDir();
         for( int i = 0; i < remoteFileRefs.length; i++ ){
-            Filer filer = Filer.create(remoteFileRefs[i]);
+            final Filer filer = Filer.create(remoteFileRefs[i], conf);
             filer.setWorkingDir(workingDir);
-            filer.localize();
-            localFileRefs.append(localFileRefs + SEP + filer.getRelativeFileRef());
+            filer.setOutput(output);
+            if( fifoFilers != null && !filer.isLocal() ) {
+                fifoFilers.add(filer);
+            } else {
+                filers.add(filer);
+            }
+            localFileRefs.append(SEP).append(absolute 
+                        ? filer.getAbsoluteFileRef() : filer.getRelativeFileRef());
         }
         return localFileRefs.toString();
     }
 
-    private static String convertToResult(OutputStream oStdout, final String strStdoutFile) {
-        if( oStdout instanceof ByteArrayOutputStream )
-            return  new String( ((ByteArrayOutputStream)oStdout).toByteArray() );
-        return strStdoutFile;
+    private StreamProcessor createStreamProcessorIn(final Invocation inv) throws IOException {
+        String strStdinFile = inv.strStdinFile;
+        if( strStdinFile != null ) {
+            InputStream iStdin = Filer.create(strStdinFile, conf).getInputStream();
+            if( runtimes != null ) {
+                // counts the bytes of the file, not of its decompressed content
+                iStdin = new FilterInputStream(iStdin) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if( b != -1 ) inv.stdinBytes++;
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        if( n > 0 ) inv.stdinBytes += n;
+                        return n;
+                    }
+                };
+            }
+            return new StreamProcessor(streamCodecs.decompress(strStdinFile, iStdin));
+        }
+        return null;
+    }
+
+    private static List<Callable<Void>> localizations(List<Filer> filers) {
+        List<Callable<Void>> transfers = new ArrayList<Callable<Void>>();
+        for( Filer filer : filers ) {
+            transfers.add(localization(filer));
+        }
+        return transfers;
     }
 
-    private static OutputStream createStdOut(final String strStdoutFile) throws IOException {
-        if( strStdoutFile != null ) 
-            return Filer.create(strStdoutFile).getOutputStream();
-        // default: output to bytestream
-        return new ByteArrayOutputStream();
+    private static Callable<Void> localization(final Filer filer) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                filer.localize();
+                return null;
+            }
+        };
     }
 
-    private static StreamProcessor createStreamProcessorIn(final String strStdinFile) throws IOException {
-        if( strStdinFile != null ) {
-            InputStream iStdin = Filer.create(strStdinFile).getInputStream();
-            return new StreamProcessor(iStdin);
+    /**
+     * Creates named pipes streaming the files of filers, falling back to
+     * localizing a file by transfers if its pipe cannot be created.
+     */
+    private static void createFifos(List<Filer> fifoFilers, List<FifoStream> fifos,
+            List<Callable<Void>> transfers) {
+        for( Filer filer : fifoFilers ) {
+            try {
+                fifos.add(FifoStream.create(filer));
+            } catch (IOException ex) {
+                LOG.warn("could not create named pipe " + filer.getAbsoluteFileRef() 
+                        + ", localizing the file", ex);
+                transfers.add(localization(filer));
+            }
         }
-        return null;
     }
 
-    private static void delocalizeOutputParameters(Map<String, String>[] mapOutputFileParameters) throws IOException {
+    /**
+     * Closes all named pipes.
+     *
+     * @throws IOException the first failure of streaming a file
+     */
+    private static void closeFifos(List<FifoStream> fifos) throws IOException {
+        IOException failure = null;
+        for( FifoStream fifo : fifos ) {
+            try {
+                fifo.close();
+            } catch (IOException ex) {
+                if( failure == null ) failure = ex;
+            }
+        }
+        if( failure != null ) throw failure;
+    }
+
+    private void delocalizeOutputParameters(Map<String, String>[] mapOutputFileParameters, String workingDir) throws IOException, InterruptedException {
+        List<Callable<Void>> transfers = new ArrayList<Callable<Void>>();
         for(int i = 0; i < mapOutputFileParameters.length; i++ ) {
             Map<String, String> outputFileParameters = mapOutputFileParameters[i];
-            delocalizeOutputParameters(outputFileParameters);
+            delocalizeOutputParameters(outputFileParameters, workingDir, transfers);
         }
+        TransferExecutor.runAll(transfers);
     }
 
-    private static void delocalizeOutputParameters(Map<String, String> outputFileParameters) throws IOException {
-        String workingDir = workingDir();
+    private void delocalizeOutputParameters(Map<String, String> outputFileParameters, String workingDir,
+            List<Callable<Void>> transfers) throws IOException {
         for( String strFile : outputFileParameters.values())
         {
             String[] localFileRefs = strFile.split(SEP);
             for( int j = 0; j < localFileRefs.length; j++ ){
-                Filer filer = Filer.create(localFileRefs[j]);
+                final String ref = localFileRefs[j];
+                final Filer filer = Filer.create(ref, conf);
                 filer.setWorkingDir(workingDir);
-                filer.delocalize();
+                final OutputContainer container = filer.isLocal() ? null : outputContainer;
+                transfers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        if( container != null ) {
+                            container.add(ref, new File(filer.getAbsoluteFileRef()));
+                        } else {
+                            filer.delocalize();
+                        }
+                        return null;
+                    }
+                });
             }
         }
     }
 
-    private static String workingDir() {
+    /**
+     * Gets the default working directory, ie. the one of the task.
+     */
+    public static String defaultWorkingDir() {
         return System.getProperty("user.dir");
     }
 
@@ -1,6 +1,8 @@
 package eu.scape_project.pt.mapred;
 
 import eu.scape_project.pt.util.PropertyNames;
+import eu.scape_project.pt.util.RuntimeHistory;
+import eu.scape_project.pt.util.fs.OutputContainer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,6 +16,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -153,7 +156,20 @@ public class CLIWrapper extends Configured implements org.apache.hadoop.util.Too
         job.setMapOutputValueClass(Text.class);
 
         job.waitForCompletion(true);
-        return job.isSuccessful() ? 0 : 1;
+        if( !job.isSuccessful() ) return 1;
+
+        if( conf.getBoolean(PropertyNames.OUTPUT_CONTAINER, false)
+                && conf.getBoolean(PropertyNames.OUTPUT_CONTAINER_UNPACK, false) ) {
+            Path outDir = new Path(conf.get(PropertyNames.OUTDIR));
+            int count = OutputContainer.unpackAll(outDir.getFileSystem(conf), outDir, conf);
+            LOG.info("Unpacked " + count + " output files");
+        }
+        if( conf.get(PropertyNames.HISTORY) != null ) {
+            Path outDir = new Path(conf.get(PropertyNames.OUTDIR));
+            Path history = new Path(conf.get(PropertyNames.HISTORY));
+            RuntimeHistory.merge(outDir.getFileSystem(conf), outDir, history);
+        }
+        return 0;
     }
     
     /**
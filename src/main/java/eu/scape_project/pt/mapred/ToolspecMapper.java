@@ -1,17 +1,42 @@
 package eu.scape_project.pt.mapred;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.SequenceInputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import eu.scape_project.pt.ToolWrapper;
+import eu.scape_project.pt.proc.WorkerPool;
+import eu.scape_project.pt.util.PropertyNames;
+import eu.scape_project.pt.util.RuntimeHistory;
+import eu.scape_project.pt.util.SpillingOutputStream;
+import eu.scape_project.pt.util.fs.ArchiveFiler;
+import eu.scape_project.pt.util.fs.LocalizationCache;
+import eu.scape_project.pt.util.fs.OutputContainer;
+import eu.scape_project.pt.util.warc.WebArchiveRecord;
 
 /**
  * The Toolspec executor.
@@ -22,15 +47,65 @@ import eu.scape_project.pt.ToolWrapper;
 public class ToolspecMapper extends Mapper<LongWritable, Text, LongWritable, Text> {
 
     private final Log LOG = LogFactory.getLog(getClass());
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_PREFETCH_BYTES = 1024L * 1024 * 1024;
+
     private ToolWrapper toolWrapper;
 
+    private Configuration conf;
+
+    /**
+     * Number of control lines executed concurrently by this task.
+     */
+    private int numThreads;
+
+    /**
+     * Maximum number of control lines executed in one batch.
+     */
+    private int batchSize;
+
+    /**
+     * Number of control lines localized ahead of the executing one.
+     */
+    private int prefetchDepth;
+
+    /**
+     * Maximum number of bytes localized ahead.
+     */
+    private long prefetchBytes;
+
+    /**
+     * Warm workers shared by all ToolWrappers of the task.
+     */
+    private WorkerPool workerPool;
+
+    /**
+     * Container collecting the task's output files, see 
+     * {@link PropertyNames#OUTPUT_CONTAINER}.
+     */
+    private OutputContainer outputContainer;
+
+    /**
+     * Runtimes of the task's control lines, see {@link PropertyNames#HISTORY}.
+     */
+    private RuntimeHistory runtimes;
+
+    /**
+     * ToolWrappers are not thread-safe, so each worker thread gets its own.
+     */
+    private final ThreadLocal<ToolWrapper> toolWrappers = new ThreadLocal<ToolWrapper>();
 
     /**
      * Sets up toolspec repository and parser.
      */
     @Override
-    public void setup(Context context) throws IOException {
-        Configuration conf = context.getConfiguration();
+    public void setup(Context context) throws IOException, InterruptedException {
+        this.conf = context.getConfiguration();
+        this.numThreads = conf.getInt(PropertyNames.MAP_THREADS, 1);
+        this.prefetchDepth = conf.getInt(PropertyNames.PREFETCH_DEPTH, 0);
+        this.prefetchBytes = conf.getLong(PropertyNames.PREFETCH_BYTES, DEFAULT_PREFETCH_BYTES);
         /* Moved to ToolWrapper
         String strRepo = conf.get(PropertyNames.REPO_LOCATION);
         Path fRepo = new Path(strRepo);
@@ -40,8 +115,68 @@ public class ToolspecMapper extends Mapper<LongWritable, Text, LongWritable, Tex
         // create parser of command line input arguments
         parser = new PipedArgsParser();
         */
-        this.toolWrapper = new ToolWrapper();
-        this.toolWrapper.setup(conf);
+        this.workerPool = new WorkerPool(
+                conf.getInt(PropertyNames.WORKER_MAX_REQUESTS, WorkerPool.DEFAULT_MAX_REQUESTS),
+                new File(ToolWrapper.defaultWorkingDir()));
+        if( conf.getBoolean(PropertyNames.OUTPUT_CONTAINER, false) ) {
+            // written to the task's work directory, so it is committed with the task
+            Path file = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    FileOutputFormat.getUniqueFile(context, OutputContainer.PREFIX, ""));
+            this.outputContainer = new OutputContainer(file.getFileSystem(conf), file, conf);
+        }
+        if( conf.get(PropertyNames.HISTORY) != null ) {
+            this.runtimes = new RuntimeHistory();
+        }
+        this.toolWrapper = createToolWrapper();
+        this.toolWrappers.set(this.toolWrapper);
+        this.batchSize = toolWrapper.isBatchingEnabled() 
+            ? conf.getInt(PropertyNames.BATCH_SIZE, DEFAULT_BATCH_SIZE) : 1;
+    }
+
+    /**
+     * Stops the warm workers, reports the localization cache's counts,
+     * closes the output container and writes the runtimes of the control 
+     * lines.
+     */
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+        if( workerPool != null ) workerPool.close();
+        ArchiveFiler.releaseReaders();
+        for( LocalizationCache.Counter counter : LocalizationCache.Counter.values() ) {
+            context.getCounter(counter).increment(LocalizationCache.takeCount(counter));
+        }
+        if( outputContainer != null ) outputContainer.close();
+        if( runtimes != null && !runtimes.isEmpty() ) {
+            // merged into the history by the client after the job
+            Path file = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    FileOutputFormat.getUniqueFile(context, RuntimeHistory.PREFIX, ""));
+            runtimes.write(file.getFileSystem(conf), file);
+        }
+    }
+
+    /**
+     * Runs the control lines of the split either one after another or, if
+     * {@link PropertyNames#MAP_THREADS} is greater than 1 or batching is 
+     * enabled, in units of single lines or batches of lines. Lines run 
+     * one after another may be localized ahead, see 
+     * {@link PropertyNames#PREFETCH_DEPTH}.
+     */
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setup(context);
+        try {
+            if( numThreads > 1 || batchSize > 1 ) {
+                runUnits(context);
+            } else if( prefetchDepth > 0 ) {
+                runPrefetched(context);
+            } else {
+                while (context.nextKeyValue()) {
+                    map(context.getCurrentKey(), context.getCurrentValue(), context);
+                }
+            }
+        } finally {
+            cleanup(context);
+        }
     }
 
     /**
@@ -62,24 +197,480 @@ public class ToolspecMapper extends Mapper<LongWritable, Text, LongWritable, Tex
     public void map(LongWritable key, Text value, Context context ) throws IOException {
         LOG.info("Mapper.map key:" + key.toString() + " value:" + value.toString());
 
-        Text text = null;
+        if( toolWrapper.isRecordLine(value.toString()) ) {
+            mapRecords(key, value.toString(), ToolWrapper.defaultWorkingDir(), context);
+            return;
+        }
+        Text text = wrap(this.toolWrapper, value.toString(),
+                ToolWrapper.defaultWorkingDir());
+        writeMappingResult(key, text, context);
+    }
+
+    /**
+     * Executes the control lines in units of a single line or a batch of
+     * consecutive lines with equal {@link ToolWrapper#batchKey(String)}.
+     * Up to numThreads units are executed at once, each in a working 
+     * directory of its own. Results are written in the order of the 
+     * control lines.
+     */
+    private void runUnits(Context context) throws IOException, InterruptedException {
+        LOG.info("Executing " + numThreads + " units of up to " + batchSize 
+                + " control lines concurrently");
+        ExecutorService executor = numThreads > 1 
+            ? Executors.newFixedThreadPool(numThreads) : null;
+        int maxPending = numThreads > 1 ? 2 * numThreads : 1;
+        LinkedList<List<LongWritable>> keys = new LinkedList<List<LongWritable>>();
+        LinkedList<Future<List<Text>>> results = new LinkedList<Future<List<Text>>>();
+        List<LongWritable> unitKeys = new ArrayList<LongWritable>();
+        List<String> unitLines = new ArrayList<String>();
+        String unitBatchKey = null;
         try {
-            text = new Text(this.toolWrapper.wrap(value.toString()));
+            while (context.nextKeyValue()) {
+                // key and value objects are reused by the record reader
+                LongWritable key = new LongWritable(context.getCurrentKey().get());
+                String line = context.getCurrentValue().toString();
+                LOG.info("Mapper.map key:" + key.toString() + " value:" + line);
+
+                if( toolWrapper.isRecordLine(line) ) {
+                    // records are written in place of the line's result
+                    if( !unitLines.isEmpty() ) {
+                        submitUnit(executor, unitKeys, unitLines, keys, results);
+                        unitKeys = new ArrayList<LongWritable>();
+                        unitLines = new ArrayList<String>();
+                    }
+                    while (!results.isEmpty()) {
+                        writeMappingResults(keys.removeFirst(),
+                                getResult(results.removeFirst()), context);
+                    }
+                    mapRecords(key, line, ToolWrapper.defaultWorkingDir(), context);
+                    continue;
+                }
+
+                String batchKey = batchSize > 1 ? batchKey(line) : null;
+                if( !unitLines.isEmpty() && (batchKey == null 
+                            || !batchKey.equals(unitBatchKey)
+                            || unitLines.size() >= batchSize) ) {
+                    submitUnit(executor, unitKeys, unitLines, keys, results);
+                    unitKeys = new ArrayList<LongWritable>();
+                    unitLines = new ArrayList<String>();
+                }
+                unitKeys.add(key);
+                unitLines.add(line);
+                unitBatchKey = batchKey;
+                if( batchKey == null ) {
+                    submitUnit(executor, unitKeys, unitLines, keys, results);
+                    unitKeys = new ArrayList<LongWritable>();
+                    unitLines = new ArrayList<String>();
+                }
+
+                // keep the number of pending units bounded
+                while (results.size() >= maxPending) {
+                    writeMappingResults(keys.removeFirst(),
+                            getResult(results.removeFirst()), context);
+                }
+            }
+            if( !unitLines.isEmpty() ) {
+                submitUnit(executor, unitKeys, unitLines, keys, results);
+            }
+            while (!results.isEmpty()) {
+                writeMappingResults(keys.removeFirst(),
+                        getResult(results.removeFirst()), context);
+            }
+        } finally {
+            if( executor != null ) executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A control line prepared for execution and its localization.
+     */
+    private static class Prefetch {
+        private String workingDir;
+        private ToolWrapper.Invocation invocation;
+        private Exception failure;
+        private Future<Long> localized;
+    }
+
+    /**
+     * Bytes localized for control lines which have not been executed yet.
+     */
+    private static class DiskBudget {
+        private final long maxBytes;
+        private long bytes = 0;
+
+        DiskBudget(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Waits until there is room for another line, a single line may
+         * exceed the budget.
+         */
+        synchronized void await() throws InterruptedException {
+            while( bytes > 0 && bytes >= maxBytes ) wait();
+        }
+
+        synchronized void add(long n) {
+            bytes += n;
+        }
+
+        synchronized void release(long n) {
+            bytes -= n;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Executes the control lines one after another, localizing up to 
+     * prefetchDepth following lines and delocalizing finished lines in 
+     * the background. Each line uses a working directory of its own.
+     * Results are written in the order of the control lines.
+     */
+    private void runPrefetched(Context context) throws IOException, InterruptedException {
+        LOG.info("Localizing up to " + prefetchDepth + " control lines and "
+                + prefetchBytes + " bytes ahead");
+        ExecutorService localizer = Executors.newSingleThreadExecutor();
+        ExecutorService delocalizer = Executors.newSingleThreadExecutor();
+        DiskBudget budget = new DiskBudget(prefetchBytes);
+        LinkedList<LongWritable> keys = new LinkedList<LongWritable>();
+        LinkedList<Prefetch> ahead = new LinkedList<Prefetch>();
+        LinkedList<Future<Text>> results = new LinkedList<Future<Text>>();
+        try {
+            while (context.nextKeyValue()) {
+                // key and value objects are reused by the record reader
+                LongWritable key = new LongWritable(context.getCurrentKey().get());
+                String line = context.getCurrentValue().toString();
+                LOG.info("Mapper.map key:" + key.toString() + " value:" + line);
+
+                if( toolWrapper.isRecordLine(line) ) {
+                    // records are written in place of the line's result
+                    while (!ahead.isEmpty()) {
+                        results.add(executePrefetched(ahead.removeFirst(), delocalizer, budget));
+                    }
+                    while (!results.isEmpty()) {
+                        writeMappingResult(keys.removeFirst(), getResult(results.removeFirst()), context);
+                    }
+                    mapRecords(key, line, lineWorkingDir(key), context);
+                    deleteWorkingDir(lineWorkingDir(key));
+                    continue;
+                }
+
+                keys.add(key);
+                ahead.add(prefetch(localizer, budget, line, lineWorkingDir(key)));
+                if( ahead.size() > prefetchDepth ) {
+                    results.add(executePrefetched(ahead.removeFirst(), delocalizer, budget));
+                }
+                // keep the number of pending delocalizations bounded
+                while (results.size() > prefetchDepth) {
+                    writeMappingResult(keys.removeFirst(), getResult(results.removeFirst()), context);
+                }
+            }
+            while (!ahead.isEmpty()) {
+                results.add(executePrefetched(ahead.removeFirst(), delocalizer, budget));
+            }
+            while (!results.isEmpty()) {
+                writeMappingResult(keys.removeFirst(), getResult(results.removeFirst()), context);
+            }
+        } finally {
+            localizer.shutdownNow();
+            delocalizer.shutdownNow();
+            for( Prefetch prefetch : ahead ) {
+                if( prefetch.invocation != null ) prefetch.invocation.release();
+            }
+        }
+    }
+
+    /**
+     * Prepares a control line and starts its localization once the disk
+     * budget allows.
+     */
+    private Prefetch prefetch(ExecutorService localizer, final DiskBudget budget,
+            String line, String workingDir) {
+        final Prefetch prefetch = new Prefetch();
+        prefetch.workingDir = workingDir;
+        try {
+            prefetch.invocation = toolWrapper.prepare(line, workingDir);
+        } catch (Exception ex) {
+            prefetch.failure = ex;
+            return prefetch;
+        }
+        prefetch.localized = localizer.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                budget.await();
+                toolWrapper.localize(prefetch.invocation);
+                long bytes = prefetch.invocation.getLocalBytes();
+                budget.add(bytes);
+                return bytes;
+            }
+        });
+        return prefetch;
+    }
+
+    /**
+     * Executes a prepared control line once it is localized and starts
+     * its delocalization. The line's working directory is deleted 
+     * afterwards, its localized bytes count against the budget until then.
+     *
+     * @return the line's result, available after its delocalization
+     */
+    private Future<Text> executePrefetched(final Prefetch prefetch, 
+            ExecutorService delocalizer, final DiskBudget budget) throws InterruptedException {
+        if( prefetch.failure != null ) {
+            deleteWorkingDir(prefetch.workingDir);
+            return errorResult(prefetch.failure);
+        }
+        final SpillingOutputStream result;
+        final long bytes;
+        try {
+            try {
+                bytes = prefetch.localized.get();
+            } catch (ExecutionException ex) {
+                deleteWorkingDir(prefetch.workingDir);
+                return errorResult(ex.getCause());
+            }
+            try {
+                result = toolWrapper.execute(prefetch.invocation);
+            } catch (Exception ex) {
+                deleteWorkingDir(prefetch.workingDir);
+                budget.release(bytes);
+                return errorResult(ex);
+            }
+        } finally {
+            prefetch.invocation.release();
+        }
+        return delocalizer.submit(new Callable<Text>() {
+            @Override
+            public Text call() {
+                try {
+                    toolWrapper.delocalize(prefetch.invocation);
+                    return toText(result);
+                } catch (Exception ex) {
+                    LOG.error("error during wrapping", ex);
+                    return convertToResult(ex);
+                } finally {
+                    result.delete();
+                    deleteWorkingDir(prefetch.workingDir);
+                    budget.release(bytes);
+                }
+            }
+        });
+    }
+
+    private Future<Text> errorResult(Throwable ex) {
+        LOG.error("error during wrapping", ex);
+        final Text text = convertToResult(ex);
+        FutureTask<Text> task = new FutureTask<Text>(new Callable<Text>() {
+            @Override
+            public Text call() {
+                return text;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * Executes a unit of control lines by the executor or, if there is none,
+     * in the current thread.
+     */
+    private void submitUnit(ExecutorService executor, 
+            final List<LongWritable> unitKeys, final List<String> unitLines,
+            List<List<LongWritable>> keys, List<Future<List<Text>>> results) {
+        final String workingDir = numThreads > 1 
+            ? lineWorkingDir(unitKeys.get(0)) 
+            : ToolWrapper.defaultWorkingDir();
+        FutureTask<List<Text>> task = new FutureTask<List<Text>>(new Callable<List<Text>>() {
+            @Override
+            public List<Text> call() throws IOException {
+                try {
+                    return wrapUnit(getToolWrapper(), unitLines, workingDir);
+                } finally {
+                    if( numThreads > 1 ) deleteWorkingDir(workingDir);
+                }
+            }
+        });
+        if( executor == null ) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        keys.add(unitKeys);
+        results.add(task);
+    }
+
+    /**
+     * Gets the batch key of a control line or null if it can't be batched.
+     */
+    private String batchKey(String line) {
+        try {
+            return this.toolWrapper.batchKey(line);
+        } catch (Exception ex) {
+            // the line's execution reports the error 
+            LOG.debug("control line cannot be batched", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps a unit of control lines, as a batch if there are several, 
+     * falling back to one line after another if the batch fails.
+     */
+    private List<Text> wrapUnit(ToolWrapper wrapper, List<String> lines, String workingDir) {
+        List<Text> texts = new ArrayList<Text>();
+        if( lines.size() > 1 ) {
+            try {
+                for( String result : wrapper.wrapBatch(lines, workingDir) ) {
+                    texts.add(new Text(result));
+                }
+                return texts;
+            } catch (Exception ex) {
+                LOG.warn("batch failed, executing its control lines one by one", ex);
+                texts.clear();
+            }
+        }
+        for( String line : lines ) {
+            texts.add(wrap(wrapper, line, workingDir));
+        }
+        return texts;
+    }
+
+    /**
+     * Gets the ToolWrapper of the current thread.
+     */
+    private ToolWrapper getToolWrapper() throws IOException {
+        ToolWrapper wrapper = toolWrappers.get();
+        if( wrapper == null ) {
+            wrapper = createToolWrapper();
+            toolWrappers.set(wrapper);
+        }
+        return wrapper;
+    }
+
+    private ToolWrapper createToolWrapper() throws IOException {
+        ToolWrapper wrapper = new ToolWrapper();
+        wrapper.setup(conf);
+        wrapper.setWorkerPool(workerPool);
+        wrapper.setOutputContainer(outputContainer);
+        wrapper.setRuntimeHistory(runtimes);
+        return wrapper;
+    }
+
+    /**
+     * Gets an isolated working directory for the control line at given offset.
+     */
+    private static String lineWorkingDir(LongWritable key) {
+        return ToolWrapper.defaultWorkingDir() + File.separator + "line-" + key.get();
+    }
+
+    /**
+     * Deletes the working directory of a control line or unit with all 
+     * files left in it.
+     */
+    private void deleteWorkingDir(String workingDir) {
+        File dir = new File(workingDir);
+        if( dir.exists() && !FileUtil.fullyDelete(dir) ) {
+            LOG.warn("could not delete working directory " + dir);
+        }
+    }
+
+    /**
+     * Wraps the control line, converting failures to an error result.
+     */
+    private Text wrap(ToolWrapper wrapper, String line, String workingDir) {
+        try {
+            SpillingOutputStream result = wrapper.wrapToStream(line, workingDir);
+            try {
+                return toText(result);
+            } finally {
+                result.delete();
+            }
+        } catch (Exception ex) {
+            LOG.error("error during wrapping", ex);
+            return convertToResult(ex);
+        }
+    }
+
+    /**
+     * Wraps a control line for each record of a WARC or ARC file. The result
+     * of a record is keyed by the record's offset in the file and prefixed
+     * by the record's ID and a tab.
+     */
+    private void mapRecords(LongWritable key, String line, String workingDir, 
+            final Context context) throws IOException {
+        try {
+            toolWrapper.wrapRecords(line, workingDir, new ToolWrapper.RecordHandler() {
+                @Override
+                public void handle(WebArchiveRecord record, SpillingOutputStream result) 
+                        throws IOException {
+                    Text text = toText((record.getId() + "\t").getBytes("UTF-8"), result);
+                    writeMappingResult(new LongWritable(record.getOffset()), text, context);
+                }
+
+                @Override
+                public void failed(WebArchiveRecord record, Exception ex) throws IOException {
+                    LOG.error("error during wrapping record " + record.getId(), ex);
+                    Text text = new Text(record.getId() + "\t");
+                    Text error = convertToResult(ex);
+                    text.append(error.getBytes(), 0, error.getLength());
+                    writeMappingResult(new LongWritable(record.getOffset()), text, context);
+                }
+            });
         } catch (Exception ex) {
             LOG.error("error during wrapping", ex);
-            text = convertToResult(ex);
+            writeMappingResult(key, convertToResult(ex), context);
+        }
+    }
+
+    /**
+     * Reads the bytes of a result into a Text.
+     */
+    private static Text toText(SpillingOutputStream result) throws IOException {
+        return toText(new byte[0], result);
+    }
+
+    /**
+     * Reads the bytes of a result preceded by a prefix into a Text. The
+     * bytes are read straight into the Text's buffer of the result's size,
+     * as appending chunks to a Text copies it for each chunk.
+     */
+    private static Text toText(byte[] prefix, SpillingOutputStream result) throws IOException {
+        long size = prefix.length + result.size();
+        if( size > Integer.MAX_VALUE ) 
+            throw new IOException("result of " + size + " bytes exceeds a Text");
+        InputStream in = result.getInputStream();
+        try {
+            Text text = new Text();
+            text.readWithKnownLength(new DataInputStream(new SequenceInputStream(
+                            new ByteArrayInputStream(prefix), in)), (int)size);
+            return text;
         } finally {
-            writeMappingResult(key, text, context);
+            in.close();
+        }
+    }
+
+    private <T> T getResult(Future<T> result) throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            LOG.error("error during wrapping", ex);
+            throw new IOException(ex.getCause());
         }
     }
 
-    private Text convertToResult(Exception ex) {
+    private Text convertToResult(Throwable ex) {
         StringWriter writer = new StringWriter();
         ex.printStackTrace(new PrintWriter(writer));
         return new Text( "ERROR: " + writer.toString() );
     }
 
 
+    private void writeMappingResults(List<LongWritable> keys, List<Text> texts, Context context) throws IOException {
+        for( int i = 0; i < keys.size(); i++ ) {
+            writeMappingResult(keys.get(i), texts.get(i), context);
+        }
+    }
+
     private void writeMappingResult(LongWritable key, Text text, Context context) throws IOException {
         try {
             context.write( key, text);
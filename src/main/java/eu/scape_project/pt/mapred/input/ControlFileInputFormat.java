@@ -24,9 +24,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,17 +37,19 @@ import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.util.LineReader;
 
+import eu.scape_project.pt.mapred.input.InputFileLocator.FileLocation;
 import eu.scape_project.pt.proc.ToolProcessor;
 import eu.scape_project.pt.repo.Repository;
 import eu.scape_project.pt.repo.ToolRepository;
@@ -55,6 +59,9 @@ import eu.scape_project.pt.util.CmdLineParser;
 import eu.scape_project.pt.util.Command;
 import eu.scape_project.pt.util.PipedArgsParser;
 import eu.scape_project.pt.util.PropertyNames;
+import eu.scape_project.pt.util.RuntimeHistory;
+import eu.scape_project.pt.util.fs.ArchiveFiler;
+import eu.scape_project.pt.util.warc.WebArchiveReader;
 
 /**
  * ControlFileInputFormat for a control file with references to files on HDFS.
@@ -77,12 +84,52 @@ import eu.scape_project.pt.util.PropertyNames;
  * <li>giving Hadoop location hints where to assign a consecutive bunch of lines to
  * </ol>
  *
+ * The splits carry their control lines, see {@link ControlLineSplit}.
+ *
  */
 @InterfaceAudience.Public
 @InterfaceStability.Stable
 public class ControlFileInputFormat extends NLineInputFormat {
     private static Log LOG = LogFactory.getLog(ControlFileInputFormat.class);
 
+    private static final int DEFAULT_SPLIT_THREADS = 16;
+
+    private static final int DEFAULT_SPLIT_LIST_THRESHOLD = 4;
+
+    /**
+     * Location of control lines whose input files have no hosts, eg. files
+     * on a shared filesystem, their splits get no location hints.
+     */
+    public static final String NO_LOCATION = "";
+
+    /**
+     * Splits of N lines.
+     */
+    public static final String SPLIT_POLICY_LINES = "lines";
+
+    /**
+     * Splits balanced by the bytes of their input files.
+     */
+    public static final String SPLIT_POLICY_BYTES = "bytes";
+
+    /**
+     * Splits balanced by their runtime predicted by the runtime history.
+     */
+    public static final String SPLIT_POLICY_RUNTIME = "runtime";
+
+    private static final double MICROS = 1e6;
+
+    /**
+     * Default maximum number of lines of a split balanced by weight,
+     * as a multiple of N.
+     */
+    private static final int DEFAULT_MAX_LINES_FACTOR = 10;
+
+    /**
+     * Number of control lines read between progress messages.
+     */
+    private static final int PROGRESS_LINES = 100000;
+
     /** 
      * Logically splits the set of input files for the job, splits N lines
      * of the input as one split.
@@ -101,16 +148,28 @@ public class ControlFileInputFormat extends NLineInputFormat {
         return splits;
     }
 
+    /**
+     * Creates a reader of the control lines of a split.
+     */
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+            TaskAttemptContext context) {
+        return new ControlLineRecordReader();
+    }
+
     /**
      * Gets the rearranged splits for a control file.
      *
      * Rearranges the lines of a control file according to the location
-     * the input file references and logically splits the rearranged control file
-     * into splits of about N lines.
+     * the input file references and splits the rearranged lines into 
+     * splits of about N lines, which carry their lines. If 
+     * {@link PropertyNames#SPLIT_POLICY} is "bytes", the splits are
+     * balanced by the number of bytes of their input files instead, if it
+     * is "runtime" by the runtime predicted by the 
+     * {@link PropertyNames#HISTORY}, or by bytes while there is none.
      */
-    public static List<FileSplit> getSplitsForFile(FileStatus status,
+    public static List<ControlLineSplit> getSplitsForFile(FileStatus status,
             Configuration conf, int numLinesPerSplit) throws IOException {
-        List<FileSplit> splits = new ArrayList<FileSplit>();
         Path controlFile = status.getPath();
         if (status.isDirectory()) {
             throw new IOException("Not a file: " + controlFile);
@@ -121,66 +180,98 @@ public class ControlFileInputFormat extends NLineInputFormat {
         Path fRepo = new Path(strRepo);
         Repository repo = new ToolRepository(fs, fRepo);
 
-        LOG.info("Creating location-aware control file");
-        Map<String, ArrayList<String>> locationMap = createLocationMap(controlFile, conf, repo, parser);
+        String policy = conf.get(PropertyNames.SPLIT_POLICY, SPLIT_POLICY_LINES);
+        if (!SPLIT_POLICY_LINES.equals(policy) && !SPLIT_POLICY_BYTES.equals(policy)
+                && !SPLIT_POLICY_RUNTIME.equals(policy)) {
+            throw new IOException("unknown split policy " + policy);
+        }
+        RuntimeHistory history = null;
+        if (SPLIT_POLICY_RUNTIME.equals(policy)) {
+            history = readHistory(conf);
+            if (history == null) {
+                LOG.info("No runtime history, balancing splits by input bytes");
+            }
+        }
+        Map<String, ArrayList<Long>> weightMap = SPLIT_POLICY_LINES.equals(policy)
+            ? null : new HashMap<String, ArrayList<Long>>();
 
-        Path newControlFile = new Path(controlFile + "-rearranged"
-                + System.currentTimeMillis());
+        LOG.info("Rearranging control lines by location");
+        Map<String, ArrayList<String>> locationMap = createLocationMap(controlFile, conf, repo, 
+                parser, weightMap, history);
 
-        splits = writeNewControlFileAndCreateSplits(newControlFile, fs, locationMap,
-                numLinesPerSplit);
-        LOG.info("Location-aware control file " + newControlFile.toString() + " created");
+        List<ControlLineSplit> splits;
+        if (weightMap == null) {
+            splits = createSplits(locationMap, numLinesPerSplit);
+        } else {
+            long splitWeight = history == null 
+                ? conf.getLong(PropertyNames.SPLIT_BYTES, 0)
+                : (long)(conf.getFloat(PropertyNames.SPLIT_SECONDS, 0) * MICROS);
+            if (splitWeight <= 0) {
+                splitWeight = getAverageWeight(weightMap, numLinesPerSplit);
+            }
+            LOG.info("Balancing splits by " + (history == null 
+                        ? splitWeight + " input bytes"
+                        : (float)splitWeight / MICROS + " predicted seconds"));
+            splits = createSplits(locationMap, weightMap, splitWeight,
+                    conf.getInt(PropertyNames.SPLIT_MIN_LINES, 1),
+                    conf.getInt(PropertyNames.SPLIT_MAX_LINES, 
+                        DEFAULT_MAX_LINES_FACTOR * numLinesPerSplit));
+        }
+        LOG.info(splits.size() + " location-aware splits of " + controlFile + " created");
         return splits;
     }
 
     /**
-     * Loops over locationMap, writes control lines from locationmap
-     * to new control file and creates equally sized splits of
+     * Reads the runtime history, null if there is none.
+     */
+    private static RuntimeHistory readHistory(Configuration conf) throws IOException {
+        String strHistory = conf.get(PropertyNames.HISTORY);
+        if (strHistory == null) return null;
+        Path file = new Path(strHistory);
+        RuntimeHistory history = RuntimeHistory.read(file.getFileSystem(conf), file);
+        return history.isEmpty() ? null : history;
+    }
+
+    /**
+     * Loops over locationMap and creates equally sized splits of
      * approximate numLinesPerSplit.
      *
-     * @param newControlFile Path to the reordered control file
-     * @param fs Hadoop filesystem handle
      * @param locationMap map of control line -> arraylist of locations
      * @param numLinesPerSplit approximate number of lines per split
      * @return list of splits
      */
-    public static List<FileSplit> writeNewControlFileAndCreateSplits(
-            Path newControlFile, FileSystem fs,
-            Map<String, ArrayList<String>> locationMap, int numLinesPerSplit)
-            throws IOException {
-        int start = 0, byteCounter = 0;
-        List<FileSplit> splits = new ArrayList<FileSplit>();
-        FSDataOutputStream fsout = fs.create(newControlFile);
+    public static List<ControlLineSplit> createSplits(
+            Map<String, ArrayList<String>> locationMap, int numLinesPerSplit) {
+        long start = 0;
+        List<ControlLineSplit> splits = new ArrayList<ControlLineSplit>();
         for (Entry<String, ArrayList<String>> entry : locationMap.entrySet()) {
-            String host = entry.getKey();
+            String[] hosts = getLocationHints(entry.getKey());
 
             ArrayList<String> lines = entry.getValue();
             int numSplits = lines.size() / numLinesPerSplit;
             int rest = lines.size() % numLinesPerSplit;
 
             if (lines.size() <= numLinesPerSplit) {
-                //   put all lines into newControlFile and use the whole as a split
-                for (String line : lines) {
-                    fsout.write((line+"\n").getBytes()); 
-                    byteCounter += line.length()+1;
-                }
-                // create the split and provide a location hint
-                splits.add(new FileSplit(newControlFile, start,
-                        byteCounter-start, new String[] { host }));
-                start = byteCounter;
+                // use all lines as a split and provide a location hint
+                ControlLineSplit split = new ControlLineSplit(start, lines,
+                        hosts);
+                splits.add(split);
+                start += split.getLength();
             } else {
                 int i = 1;
                 int j = rest;
+                List<String> splitLines = new ArrayList<String>();
                 for (String line : lines) {
-                    fsout.write((line+"\n").getBytes());
-                    byteCounter += line.length()+1;
+                    splitLines.add(line);
                     if (i < numLinesPerSplit + (j/numSplits)) {
                         i++;
                     } else {
                         // create the split and provide a location hint
-                        splits.add(new FileSplit(newControlFile, start,
-                                (byteCounter-start), new String[] { host }));
-                        start = byteCounter;
+                        ControlLineSplit split = new ControlLineSplit(start, splitLines,
+                                hosts);
+                        splits.add(split);
+                        start += split.getLength();
+                        splitLines = new ArrayList<String>();
                         if ( j >= numSplits ) {
                             j = numSplits % rest;
                         }
@@ -188,15 +279,109 @@ public class ControlFileInputFormat extends NLineInputFormat {
                         i = 1;
                     }
                 }
+                if (!splitLines.isEmpty()) {
+                    ControlLineSplit split = new ControlLineSplit(start, splitLines,
+                            hosts);
+                    splits.add(split);
+                    start += split.getLength();
+                }
             }
         }
-        fsout.close();
+        return splits;
+    }
+
+    /**
+     * Gets the location hints of the splits of a location.
+     */
+    private static String[] getLocationHints(String location) {
+        return NO_LOCATION.equals(location) ? new String[0] : new String[] { location };
+    }
+
+    /**
+     * Gets the weight of a split having the average weight of
+     * numLinesPerSplit lines.
+     *
+     * @param weightMap map of location -> weights of its lines
+     */
+    static long getAverageWeight(Map<String, ArrayList<Long>> weightMap, int numLinesPerSplit) {
+        long total = 0, lines = 0;
+        for (ArrayList<Long> weights : weightMap.values()) {
+            for (long weight : weights) {
+                total += weight;
+            }
+            lines += weights.size();
+        }
+        if (lines == 0) return 1;
+        return Math.max(1, total * numLinesPerSplit / lines);
+    }
+
+    /**
+     * Loops over locationMap and creates splits of about the same weight,
+     * eg. the number of bytes of the lines' input files. Each split holds 
+     * lines of a single location.
+     *
+     * A split is closed once its weight reaches splitWeight and it has got
+     * minLines or when it has got maxLines. The last lines of a location
+     * are added to the location's previous split if they are fewer than
+     * minLines.
+     *
+     * @param locationMap map of location -> arraylist of control lines
+     * @param weightMap map of location -> weights of its lines
+     * @param splitWeight weight of a split
+     * @param minLines minimum number of lines of a split
+     * @param maxLines maximum number of lines of a split
+     * @return list of splits
+     */
+    public static List<ControlLineSplit> createSplits(
+            Map<String, ArrayList<String>> locationMap,
+            Map<String, ArrayList<Long>> weightMap, long splitWeight,
+            int minLines, int maxLines) {
+        maxLines = Math.max(maxLines, 1);
+        minLines = Math.min(Math.max(minLines, 1), maxLines);
+        long start = 0;
+        List<ControlLineSplit> splits = new ArrayList<ControlLineSplit>();
+        for (Entry<String, ArrayList<String>> entry : locationMap.entrySet()) {
+            String[] hosts = getLocationHints(entry.getKey());
+            ArrayList<String> lines = entry.getValue();
+            ArrayList<Long> weights = weightMap.get(entry.getKey());
+            ControlLineSplit previous = null;
+            List<String> splitLines = new ArrayList<String>();
+            long weight = 0;
+            for (int l = 0; l < lines.size(); l++) {
+                splitLines.add(lines.get(l));
+                weight += weights.get(l);
+                if (splitLines.size() >= maxLines
+                        || (weight >= splitWeight && splitLines.size() >= minLines)) {
+                    previous = new ControlLineSplit(start, splitLines, hosts);
+                    splits.add(previous);
+                    start += previous.getLength();
+                    splitLines = new ArrayList<String>();
+                    weight = 0;
+                }
+            }
+            if (splitLines.isEmpty()) continue;
+            if (previous != null && splitLines.size() < minLines
+                    && previous.getLines().size() + splitLines.size() <= maxLines) {
+                // too few lines left for a split of their own
+                splits.remove(splits.size() - 1);
+                start = previous.getStart();
+                List<String> merged = new ArrayList<String>(previous.getLines());
+                merged.addAll(splitLines);
+                splitLines = merged;
+            }
+            ControlLineSplit split = new ControlLineSplit(start, splitLines, hosts);
+            splits.add(split);
+            start += split.getLength();
+        }
         return splits;
     }
 
     /**
      * Creates mapping of locations to arraylists of control lines.
      *
+     * The input files of all control lines are located before the lines
+     * are assigned to locations, see {@link InputFileLocator}.
+     *
      * @param controlFile input control file
      * @param conf Hadoop configuration
      * @param repo Toolspec repository
@@ -206,43 +391,168 @@ public class ControlFileInputFormat extends NLineInputFormat {
     public static Map<String, ArrayList<String>> createLocationMap(
             Path controlFile, Configuration conf, Repository repo,
             CmdLineParser parser) throws IOException {
+        return createLocationMap(controlFile, conf, repo, parser, null, null);
+    }
+
+    /**
+     * Creates mapping of locations to arraylists of control lines like
+     * {@link #createLocationMap(Path, Configuration, Repository, CmdLineParser)}
+     * and collects the weight of each line, the number of bytes of its
+     * input files or its predicted runtime in microseconds.
+     *
+     * @param weightMap filled with the weights of the lines of each
+     *        location in the order of the lines, may be null
+     * @param history history predicting the runtime of the lines, weights
+     *        are bytes if null
+     */
+    static Map<String, ArrayList<String>> createLocationMap(
+            Path controlFile, Configuration conf, Repository repo,
+            CmdLineParser parser, Map<String, ArrayList<Long>> weightMap,
+            RuntimeHistory history) throws IOException {
         FileSystem fs = controlFile.getFileSystem(conf);
-        FSDataInputStream in = fs.open(controlFile);
-        LineReader lr = new LineReader(in, conf);
-        Text controlLine = new Text();
+        InputFileLocator locator = new InputFileLocator(fs,
+                conf.getInt(PropertyNames.SPLIT_THREADS, DEFAULT_SPLIT_THREADS),
+                conf.getInt(PropertyNames.SPLIT_LIST_THRESHOLD, DEFAULT_SPLIT_LIST_THRESHOLD));
+        List<ControlLine> controlLines = readControlLines(fs, controlFile, conf, 
+                repo, parser, locator);
+        locator.resolve();
+        // the bytes of an archive are spread over the lines of its members
+        Map<String, Integer> archiveLines = weightMap == null 
+            ? null : countArchiveLines(controlLines);
+
         Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
-        ArrayList<String> allHosts = new ArrayList<String>();
+        HostBalancer balancer = new HostBalancer();
+        // lines referencing archive members are kept together per archive
+        Map<String, String> archiveHosts = new HashMap<String, String>();
+        final Map<String, String> lineArchives = new HashMap<String, String>();
         int l = 0;
-        while ((lr.readLine(controlLine)) > 0) {
+        for (ControlLine controlLine : controlLines) {
             l += 1;
-            // read line by line
-            Path[] inFiles = getInputFiles(fs, parser, repo, controlLine.toString());
+            String line = controlLine.line;
+            List<String> fileRefs = controlLine.fileRefs;
+            String strRecords = controlLine.stdinFile;
+            if( WebArchiveReader.isRecordsRef(strRecords) 
+                    && WebArchiveReader.getRange(strRecords) == null
+                    && WebArchiveReader.isCompressed(WebArchiveReader.getFileRef(strRecords)) ) {
+                // records of large files are processed in ranges by several lines,
+                // plain files are not split as a payload line may look like a record
+                List<FileLocation> files = locator.get(
+                        new Path(WebArchiveReader.getFileRef(strRecords)));
+                if( files.size() == 1 ) {
+                    FileLocation file = files.get(0);
+                    FileStatus status = file.status;
+                    long splitSize = conf.getLong(PropertyNames.RECORD_SPLIT_SIZE, 
+                            status.getBlockSize());
+                    if( splitSize > 0 && status.getLen() > splitSize ) {
+                        for( long start = 0; start < status.getLen(); start += splitSize ) {
+                            long end = Math.min(start + splitSize, status.getLen());
+                            int ref = line.indexOf(strRecords);
+                            String rangeLine = line.substring(0, ref)
+                                + WebArchiveReader.getRangeRef(strRecords, start, end)
+                                + line.substring(ref + strRecords.length());
+                            String[] hostsOfRange = getSortedHosts(file, start, end - start);
+                            addLineToLocationMap(locationMap, weightMap,
+                                    balancer.assign(hostsOfRange, l++), rangeLine, 
+                                    weigh(history, controlLine.key, end - start));
+                        }
+                        l--;
+                        continue;
+                    }
+                }
+            }
+            String archive = getArchive(fileRefs);
+            if( archive != null ) {
+                lineArchives.put(line, archive);
+                String host = archiveHosts.get(archive);
+                if( host != null ) {
+                    addLineToLocationMap(locationMap, weightMap, host, line, 
+                            weightMap == null ? 0 : weigh(history, controlLine.key,
+                                getInputBytes(locator, fs, fileRefs, archiveLines)));
+                    if( !NO_LOCATION.equals(host) ) balancer.add(host);
+                    continue;
+                }
+            }
 
             // count for each host how many blocks it holds of the current control line's input files
-            String[] hostsOfFile = getSortedHosts(fs, inFiles);
+            String[] hostsOfFile = getSortedHosts(locator, fs, fileRefs);
 
-            for ( String host : hostsOfFile ) {
-                if( !allHosts.contains(host)) allHosts.add(host);
-            }
-            ArrayList<String> theseHosts = (ArrayList<String>)allHosts.clone();
-            for ( String host : hostsOfFile ) {
-                theseHosts.remove(host);
+            String host = addLineToLocationMap(locationMap, weightMap,
+                    balancer.assign(hostsOfFile, l), line,
+                    weightMap == null ? 0 : weigh(history, controlLine.key,
+                        getInputBytes(locator, fs, fileRefs, archiveLines)));
+            if( archive != null ) archiveHosts.put(archive, host);
+        }
+        if( !archiveHosts.isEmpty() ) {
+            // order lines by archive, so each archive is read sequentially
+            Comparator<String> byArchive = new Comparator<String>() {
+                @Override
+                public int compare(String line1, String line2) {
+                    String archive1 = lineArchives.get(line1);
+                    String archive2 = lineArchives.get(line2);
+                    if( archive1 == null ) return archive2 == null ? 0 : -1;
+                    return archive2 == null ? 1 : archive1.compareTo(archive2);
+                }
+            };
+            for( Entry<String, ArrayList<String>> entry : locationMap.entrySet() ) {
+                if( weightMap == null ) {
+                    Collections.sort(entry.getValue(), byArchive);
+                } else {
+                    sortLines(entry.getValue(), weightMap.get(entry.getKey()), byArchive);
+                }
             }
+        }
+        return locationMap;
+    }
 
-            String[] hosts = new String[theseHosts.size() + hostsOfFile.length];
-            int h = 0;
-            for ( String host : hostsOfFile ) {
-                hosts[h] = hostsOfFile[h];
-                h++;
-            }
-            for( String host : theseHosts ) {
-                hosts[h] = theseHosts.get(h-hostsOfFile.length);
-                h++;
+    /**
+     * A control line, its input file references and tool/action(s).
+     */
+    private static class ControlLine {
+        final String line;
+        final List<String> fileRefs;
+        final String stdinFile;
+        final String key;
+
+        ControlLine(String line, List<String> fileRefs, String stdinFile, String key) {
+            this.line = line;
+            this.fileRefs = fileRefs;
+            this.stdinFile = stdinFile;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Reads and parses the control lines and adds their input files to
+     * the locator.
+     */
+    private static List<ControlLine> readControlLines(FileSystem fs, Path controlFile,
+            Configuration conf, Repository repo, CmdLineParser parser,
+            InputFileLocator locator) throws IOException {
+        List<ControlLine> controlLines = new ArrayList<ControlLine>();
+        // toolspecs are read once instead of for every line
+        Map<String, Tool> tools = new HashMap<String, Tool>();
+        FSDataInputStream in = fs.open(controlFile);
+        try {
+            LineReader lr = new LineReader(in, conf);
+            Text text = new Text();
+            while ((lr.readLine(text)) > 0) {
+                String line = text.toString();
+                List<String> fileRefs = getInputFileRefs(parser, repo, tools, line);
+                controlLines.add(new ControlLine(line, fileRefs, parser.getStdinFile(),
+                            RuntimeHistory.key(parser.getCommands())));
+                for (String fileRef : fileRefs) {
+                    Path p = getInputPath(fs, fileRef);
+                    if (p != null) locator.add(p);
+                }
+                if (controlLines.size() % PROGRESS_LINES == 0) {
+                    LOG.info("Read " + controlLines.size() + " control lines");
+                }
             }
-            
-            addToLocationMap(locationMap, hosts, controlLine.toString(), l);
+        } finally {
+            in.close();
         }
-        return locationMap;
+        LOG.info("Read " + controlLines.size() + " control lines of " + controlFile);
+        return controlLines;
     }
 
     /**
@@ -263,8 +573,65 @@ public class ControlFileInputFormat extends NLineInputFormat {
             if (lines.size() < (float)lineNum / hosts.length ) {
                 lines.add(line);
                 locationMap.put(host, lines);
-                break;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds control line to the locationmap at a location chosen by a
+     * {@link HostBalancer}.
+     *
+     * @param weightMap map of location -> weights of its lines, may be null
+     * @param host the location or null if there is none
+     * @param weight weight of the line
+     * @return the location the line was added to, {@link #NO_LOCATION} 
+     *         for none
+     */
+    private static String addLineToLocationMap(
+        Map<String, ArrayList<String>> locationMap, Map<String, ArrayList<Long>> weightMap,
+        String host, String line, long weight) {
+        if (host == null) host = NO_LOCATION;
+        ArrayList<String> lines = locationMap.get(host);
+        if (lines == null) {
+            lines = new ArrayList<String>();
+            locationMap.put(host, lines);
+            if (weightMap != null) weightMap.put(host, new ArrayList<Long>());
+        }
+        lines.add(line);
+        if (weightMap != null) weightMap.get(host).add(weight);
+        return host;
+    }
+
+    /**
+     * Gets the weight of a line, its bytes or, given a history, its
+     * predicted runtime in microseconds.
+     */
+    private static long weigh(RuntimeHistory history, String key, long bytes) {
+        if (history == null) return bytes;
+        return (long)(history.predict(key, bytes) * MICROS);
+    }
+
+    /**
+     * Stable sorts lines and their weights by the order of the lines.
+     */
+    private static void sortLines(ArrayList<String> lines, ArrayList<Long> weights,
+            final Comparator<String> order) {
+        final ArrayList<String> unsorted = new ArrayList<String>(lines);
+        ArrayList<Integer> indices = new ArrayList<Integer>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            indices.add(i);
+        }
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return order.compare(unsorted.get(i1), unsorted.get(i2));
             }
+        });
+        ArrayList<Long> unsortedWeights = new ArrayList<Long>(weights);
+        for (int i = 0; i < indices.size(); i++) {
+            lines.set(i, unsorted.get(indices.get(i)));
+            weights.set(i, unsortedWeights.get(indices.get(i)));
         }
     }
 
@@ -279,12 +646,72 @@ public class ControlFileInputFormat extends NLineInputFormat {
      */
     public static Path[] getInputFiles(FileSystem fs, CmdLineParser parser,
             Repository repo, String controlLine) throws IOException {
+        return getInputFiles(fs, getInputFileRefs(parser, repo, 
+                    new HashMap<String, Tool>(), controlLine));
+    }
+
+    /**
+     * Gets the paths of input file references. Archive members and records
+     * are represented by their file.
+     *
+     * @param fs Hadoop filesystem handle
+     * @param fileRefs input file references
+     * @return array of paths to input file references
+     */
+    private static Path[] getInputFiles(FileSystem fs, List<String> fileRefs)
+            throws IOException {
+        ArrayList<Path> inFiles = new ArrayList<Path>();
+        for (String fileRef : fileRefs) {
+            Path p = getInputPath(fs, fileRef);
+            if (p != null && fs.exists(p) ) { 
+                if( fs.isDirectory(p) ) {
+                    inFiles.addAll(getFilesInDir(fs, p));
+                } else {
+                    inFiles.add(p);
+                }
+            }
+        }
+        return inFiles.toArray(new Path[0]);
+    }
+
+    /**
+     * Gets the path of an input file reference. Archive members and records
+     * are represented by their file.
+     *
+     * @param fs Hadoop filesystem handle
+     * @param fileRef input file reference
+     * @return the path or null if the file is not on the filesystem
+     */
+    private static Path getInputPath(FileSystem fs, String fileRef) {
+        String containerRef = ArchiveFiler.getArchiveRef(fileRef);
+        if (containerRef == null && WebArchiveReader.isRecordsRef(fileRef)) {
+            containerRef = WebArchiveReader.getFileRef(fileRef);
+        }
+        Path p = new Path(containerRef != null ? containerRef : fileRef);
+        return isOnFileSystem(fs, p) ? p : null;
+    }
+
+    /**
+     * Finds the stdin and input file references of the control line's
+     * first command.
+     *
+     * @param parser for parsing the control line
+     * @param repo Toolspec repository
+     * @param tools toolspecs read so far, by name
+     * @return list of file references
+     */
+    private static List<String> getInputFileRefs(CmdLineParser parser,
+            Repository repo, Map<String, Tool> tools, String controlLine) throws IOException {
         parser.parse(controlLine);
 
         Command command = parser.getCommands()[0];
         String strStdinFile = parser.getStdinFile();
         // parse it, read input file parameters
-        Tool tool = repo.getTool(command.getTool());
+        Tool tool = tools.get(command.getTool());
+        if (tool == null) {
+            tool = repo.getTool(command.getTool());
+            tools.put(command.getTool(), tool);
+        }
 
         ToolProcessor proc = new ToolProcessor(tool);
         Operation operation = proc.findOperation(command.getAction());
@@ -296,25 +723,39 @@ public class ControlFileInputFormat extends NLineInputFormat {
         proc.setParameters(command.getPairs());
         Map<String, String> mapInputFileParameters = proc
                 .getInputFileParameters();
-        ArrayList<Path> inFiles = new ArrayList<Path>();
+        List<String> fileRefs = new ArrayList<String>();
         if (strStdinFile != null) {
-            Path p = new Path(strStdinFile);
-            if (fs.exists(p)) {
-                inFiles.add(p);
-            }
+            fileRefs.add(strStdinFile);
         } 
+        fileRefs.addAll(mapInputFileParameters.values());
+        return fileRefs;
+    }
 
-        for (String fileRef : mapInputFileParameters.values()) {
-            Path p = new Path(fileRef);
-            if (fs.exists(p) ) { 
-                if( fs.isDirectory(p) ) {
-                    inFiles.addAll(getFilesInDir(fs, p));
-                } else {
-                    inFiles.add(p);
-                }
-            }
+    /**
+     * Gets the first archive whose members the control line references.
+     *
+     * @param fileRefs input file references of the control line
+     * @return archive reference or null
+     */
+    private static String getArchive(List<String> fileRefs) {
+        for (String fileRef : fileRefs) {
+            String archiveRef = ArchiveFiler.getArchiveRef(fileRef);
+            if (archiveRef != null) return archiveRef;
         }
-        return inFiles.toArray(new Path[0]);
+        return null;
+    }
+
+    /**
+     * Checks whether a path may be located by the filesystem, which is not
+     * the case for file references of other schemes, eg. file://.
+     *
+     * @param fs Hadoop filesystem handle
+     * @param path path of a file reference
+     */
+    private static boolean isOnFileSystem(FileSystem fs, Path path) {
+        String scheme = path.toUri().getScheme();
+        return scheme == null || fs.getUri() == null 
+            || scheme.equals(fs.getUri().getScheme());
     }
 
     /**
@@ -347,24 +788,136 @@ public class ControlFileInputFormat extends NLineInputFormat {
      */
     public static String[] getSortedHosts(FileSystem fs, Path[] inFiles)
             throws IOException {
-        final Map<String, Integer> hostMap = new HashMap<String, Integer>();
+        Map<String, Integer> hostMap = new HashMap<String, Integer>();
         for( Path inFile : inFiles ) {
             FileStatus s = fs.getFileStatus(inFile);
-            BlockLocation[] locations = fs.getFileBlockLocations(s, 0, s.getLen());
-            for( BlockLocation location : locations ) {
-                String[] hosts = location.getHosts();
-                for( String host : hosts ) {
-                    if( !hostMap.containsKey(host) ) {
-                        hostMap.put(host, 1);
-                        continue;
-                    }
-                    hostMap.put(host, hostMap.get(host)+1);
-                }
+            countHosts(hostMap, fs.getFileBlockLocations(s, 0, s.getLen()));
+        }
+        return sortByCount(hostMap);
+    }
+
+    /**
+     * Gets the hosts of the blocks of located input files sorted by the 
+     * total number of occurrences.
+     *
+     * @param locator locator having resolved the input files
+     * @param fs Hadoop filesystem handle
+     * @param fileRefs input file references
+     * @return sorted String array
+     */
+    private static String[] getSortedHosts(InputFileLocator locator, FileSystem fs,
+            List<String> fileRefs) throws IOException {
+        Map<String, Integer> hostMap = new HashMap<String, Integer>();
+        for( String fileRef : fileRefs ) {
+            Path p = getInputPath(fs, fileRef);
+            if( p == null ) continue;
+            for( FileLocation file : locator.get(p) ) {
+                countHosts(hostMap, file.blocks);
+            }
+        }
+        return sortByCount(hostMap);
+    }
+
+    /**
+     * Counts the control lines referencing members of each archive.
+     *
+     * @param controlLines control lines
+     * @return map of archive reference -> number of lines
+     */
+    private static Map<String, Integer> countArchiveLines(List<ControlLine> controlLines) {
+        Map<String, Integer> archiveLines = new HashMap<String, Integer>();
+        for( ControlLine controlLine : controlLines ) {
+            for( String archive : getArchives(controlLine.fileRefs) ) {
+                Integer n = archiveLines.get(archive);
+                archiveLines.put(archive, n == null ? 1 : n + 1);
+            }
+        }
+        return archiveLines;
+    }
+
+    /**
+     * Gets the distinct archives whose members the file references
+     * reference.
+     */
+    private static Set<String> getArchives(List<String> fileRefs) {
+        Set<String> archives = new HashSet<String>();
+        for( String fileRef : fileRefs ) {
+            String archive = ArchiveFiler.getArchiveRef(fileRef);
+            if( archive != null ) archives.add(archive);
+        }
+        return archives;
+    }
+
+    /**
+     * Gets the number of bytes of located input files. An archive counts
+     * with its share of the lines referencing its members.
+     *
+     * @param locator locator having resolved the input files
+     * @param fs Hadoop filesystem handle
+     * @param fileRefs input file references
+     * @param archiveLines map of archive reference -> number of lines
+     *        referencing its members
+     */
+    private static long getInputBytes(InputFileLocator locator, FileSystem fs,
+            List<String> fileRefs, Map<String, Integer> archiveLines) {
+        long bytes = 0;
+        Set<String> archives = new HashSet<String>();
+        for( String fileRef : fileRefs ) {
+            String archive = ArchiveFiler.getArchiveRef(fileRef);
+            if( archive != null && !archives.add(archive) ) continue;
+            Path p = getInputPath(fs, fileRef);
+            if( p == null ) continue;
+            long fileBytes = 0;
+            for( FileLocation file : locator.get(p) ) {
+                fileBytes += file.status.getLen();
+            }
+            Integer lines = archive == null ? null : archiveLines.get(archive);
+            bytes += lines == null ? fileBytes : fileBytes / lines;
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the hosts of the blocks of a range of a file sorted by the 
+     * number of blocks.
+     *
+     * @param file located file
+     * @param start offset of the range
+     * @param length length of the range
+     * @return sorted String array
+     */
+    private static String[] getSortedHosts(FileLocation file, long start, long length)
+            throws IOException {
+        List<BlockLocation> blocks = new ArrayList<BlockLocation>();
+        for( BlockLocation block : file.blocks ) {
+            if( block.getOffset() < start + length 
+                    && block.getOffset() + block.getLength() > start ) {
+                blocks.add(block);
+            }
+        }
+        Map<String, Integer> hostMap = new HashMap<String, Integer>();
+        countHosts(hostMap, blocks.toArray(new BlockLocation[0]));
+        return sortByCount(hostMap);
+    }
+
+    /**
+     * Counts for each host the number of blocks it holds.
+     */
+    private static void countHosts(Map<String, Integer> hostMap, BlockLocation[] blocks)
+            throws IOException {
+        for( BlockLocation block : blocks ) {
+            for( String host : block.getHosts() ) {
+                Integer count = hostMap.get(host);
+                hostMap.put(host, count == null ? 1 : count + 1);
             }
         }
-        // sort hosts by number of references to blocks of input files
-        List<String> hosts = new ArrayList<String>();
-        hosts.addAll(hostMap.keySet());
+    }
+
+    /**
+     * Sorts hosts by their counts, the highest first.
+     */
+    private static String[] sortByCount(final Map<String, Integer> hostMap) {
+        List<String> hosts = new ArrayList<String>(hostMap.keySet());
         Collections.sort(hosts, new Comparator<String>() {
             @Override
             public int compare(String host1, String host2) {
@@ -372,8 +925,6 @@ public class ControlFileInputFormat extends NLineInputFormat {
             }
         });
         return hosts.toArray(new String[0]);
-
     }
 
 }
-
@@ -0,0 +1,60 @@
+package eu.scape_project.pt.mapred.input;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Reads the control lines of a {@link ControlLineSplit}, keyed by their
+ * offsets.
+ */
+public class ControlLineRecordReader extends RecordReader<LongWritable, Text> {
+
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+    private List<String> lines;
+    private int next;
+    private long pos;
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+        ControlLineSplit controlLineSplit = (ControlLineSplit)split;
+        this.lines = controlLineSplit.getLines();
+        this.pos = controlLineSplit.getStart();
+        this.next = 0;
+    }
+
+    @Override
+    public boolean nextKeyValue() {
+        if( next >= lines.size() ) return false;
+        if( next > 0 ) pos += value.getLength() + 1;
+        value.set(lines.get(next++));
+        key.set(pos);
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        return lines.isEmpty() ? 1.0f : (float)next / lines.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
@@ -0,0 +1,114 @@
+package eu.scape_project.pt.mapred.input;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * A split carrying its control lines, so lines rearranged by their
+ * locations need not be written to a control file of their own.
+ *
+ * The lines are numbered by byte offsets as if all splits of a job were
+ * concatenated, starting with {@link #getStart()}.
+ */
+public class ControlLineSplit extends InputSplit implements Writable {
+
+    private long start;
+    private List<String> lines;
+    private long length;
+    private String[] hosts;
+
+    /**
+     * Used for deserialization.
+     */
+    public ControlLineSplit() {
+        this(0, new ArrayList<String>(), new String[0]);
+    }
+
+    /**
+     * @param start offset of the first line
+     * @param lines control lines
+     * @param hosts locations of the lines' input files
+     */
+    public ControlLineSplit(long start, List<String> lines, String[] hosts) {
+        this.start = start;
+        this.lines = lines;
+        this.hosts = hosts;
+        this.length = length(lines);
+    }
+
+    /**
+     * Gets the offset of the first line.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets the number of bytes of the lines including line breaks.
+     */
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String[] getLocations() {
+        return hosts;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, start);
+        WritableUtils.writeVInt(out, lines.size());
+        for( String line : lines ) {
+            Text.writeString(out, line);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        start = WritableUtils.readVLong(in);
+        int n = WritableUtils.readVInt(in);
+        lines = new ArrayList<String>(n);
+        for( int i = 0; i < n; i++ ) {
+            lines.add(Text.readString(in));
+        }
+        length = length(lines);
+        // like FileSplit, locations are not serialized
+        hosts = new String[0];
+    }
+
+    /**
+     * Gets the number of bytes of lines, ie. the offset following them.
+     */
+    static long length(List<String> lines) {
+        long length = 0;
+        try {
+            for( String line : lines ) {
+                length += line.getBytes("UTF-8").length + 1;
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "control lines " + start + "+" + lines.size();
+    }
+
+}
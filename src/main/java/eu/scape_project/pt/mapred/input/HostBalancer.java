@@ -0,0 +1,126 @@
+package eu.scape_project.pt.mapred.input;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns control lines to hosts, preferring the hosts holding most blocks
+ * of a line's input files while keeping the number of lines per host
+ * balanced.
+ *
+ * A line goes to the first of its hosts which has got fewer lines than
+ * the average so far, or else to the first known host which has. Hosts
+ * are numbered in the order they become known, their loads are kept in
+ * a tournament tree (an indexed priority queue by load), so the first
+ * host below the average is found in O(log hosts).
+ */
+class HostBalancer {
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> hosts = new ArrayList<String>();
+
+    /**
+     * Number of leaves of the tree, a power of 2.
+     */
+    private int capacity = 16;
+
+    /**
+     * The loads of the hosts at capacity + id, each inner node i holds the
+     * minimum of its children 2i and 2i+1. Unused leaves are MAX_VALUE.
+     */
+    private int[] tree = newTree(capacity);
+
+    /**
+     * Assigns a line to a host.
+     *
+     * @param hostsOfFile hosts of the line's input files, sorted by the
+     *        number of blocks they hold
+     * @param lineNum number of the line, ie. number of lines assigned so far
+     *        plus one
+     * @return the host or null if there is no host at all
+     */
+    String assign(String[] hostsOfFile, int lineNum) {
+        int[] fileIds = new int[hostsOfFile.length];
+        for( int h = 0; h < hostsOfFile.length; h++ ) {
+            fileIds[h] = getId(hostsOfFile[h]);
+        }
+        if( hosts.isEmpty() ) return null;
+        float average = (float)lineNum / hosts.size();
+        for( int id : fileIds ) {
+            if( tree[capacity + id] < average ) {
+                increment(id);
+                return hosts.get(id);
+            }
+        }
+        // the hosts of the files are above the average, so the first one
+        // below is another host
+        int id = firstBelow(average);
+        if( id < 0 ) return null;
+        increment(id);
+        return hosts.get(id);
+    }
+
+    /**
+     * Counts a line assigned to a known host other than by
+     * {@link #assign(String[], int)}.
+     */
+    void add(String host) {
+        increment(getId(host));
+    }
+
+    private int getId(String host) {
+        Integer id = ids.get(host);
+        if( id != null ) return id;
+        id = hosts.size();
+        if( id == capacity ) grow();
+        ids.put(host, id);
+        hosts.add(host);
+        set(id, 0);
+        return id;
+    }
+
+    private void increment(int id) {
+        set(id, tree[capacity + id] + 1);
+    }
+
+    private void set(int id, int load) {
+        int node = capacity + id;
+        tree[node] = load;
+        for( node >>= 1; node > 0; node >>= 1 ) {
+            tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Gets the lowest id with a load below the average or -1.
+     */
+    private int firstBelow(float average) {
+        if( !(tree[1] < average) ) return -1;
+        int node = 1;
+        while( node < capacity ) {
+            node = tree[2 * node] < average ? 2 * node : 2 * node + 1;
+        }
+        return node - capacity;
+    }
+
+    private void grow() {
+        int[] old = tree;
+        int oldCapacity = capacity;
+        capacity *= 2;
+        tree = newTree(capacity);
+        System.arraycopy(old, oldCapacity, tree, capacity, oldCapacity);
+        for( int node = capacity - 1; node > 0; node-- ) {
+            tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    private static int[] newTree(int capacity) {
+        int[] tree = new int[2 * capacity];
+        Arrays.fill(tree, Integer.MAX_VALUE);
+        return tree;
+    }
+
+}
@@ -0,0 +1,245 @@
+package eu.scape_project.pt.mapred.input;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * Resolves the statuses and block locations of the input files of all
+ * control lines before the lines are assigned to locations.
+ *
+ * The file references are resolved by a bounded number of threads. The
+ * files of a directory holding several referenced files are listed with
+ * their block locations by a single listLocatedStatus call instead of
+ * querying the NameNode twice for each file.
+ */
+class InputFileLocator {
+
+    private static Log LOG = LogFactory.getLog(InputFileLocator.class);
+
+    /**
+     * Number of located file references between progress messages.
+     */
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    /**
+     * Status and block locations of a file.
+     */
+    static class FileLocation {
+        final FileStatus status;
+        final BlockLocation[] blocks;
+
+        FileLocation(FileStatus status, BlockLocation[] blocks) {
+            this.status = status;
+            this.blocks = blocks;
+        }
+    }
+
+    private final FileSystem fs;
+    private final int numThreads;
+    private final int listThreshold;
+
+    /**
+     * Referenced paths by their parent directory.
+     */
+    private final Map<Path, Set<Path>> refsByParent = new HashMap<Path, Set<Path>>();
+
+    /**
+     * Files of the referenced paths which exist, several for a directory.
+     */
+    private final ConcurrentMap<Path, List<FileLocation>> locations =
+        new ConcurrentHashMap<Path, List<FileLocation>>();
+
+    private final AtomicInteger located = new AtomicInteger();
+    private int total = 0;
+
+    /**
+     * @param fs Hadoop filesystem handle
+     * @param numThreads number of concurrent NameNode queries
+     * @param listThreshold minimum number of referenced files in a directory
+     *        for listing the directory instead of querying each file
+     */
+    InputFileLocator(FileSystem fs, int numThreads, int listThreshold) {
+        this.fs = fs;
+        this.numThreads = Math.max(numThreads, 1);
+        this.listThreshold = Math.max(listThreshold, 1);
+    }
+
+    /**
+     * Adds the path of a file reference to resolve.
+     */
+    void add(Path path) {
+        Path ref = qualify(path);
+        Path parent = ref.getParent();
+        Set<Path> refs = refsByParent.get(parent);
+        if( refs == null ) {
+            refs = new HashSet<Path>();
+            refsByParent.put(parent, refs);
+        }
+        refs.add(ref);
+    }
+
+    /**
+     * Resolves the paths added so far.
+     */
+    void resolve() throws IOException {
+        List<Callable<Void>> queries = new ArrayList<Callable<Void>>();
+        for( Entry<Path, Set<Path>> entry : refsByParent.entrySet() ) {
+            Set<Path> refs = entry.getValue();
+            total += refs.size();
+            if( entry.getKey() != null && refs.size() >= listThreshold ) {
+                queries.add(listing(entry.getKey(), refs));
+            } else {
+                for( Path ref : refs ) {
+                    queries.add(lookup(ref));
+                }
+            }
+        }
+        refsByParent.clear();
+        LOG.info("Locating " + total + " input files by " + queries.size()
+                + " queries in " + numThreads + " threads");
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            for( Future<Void> query : executor.invokeAll(queries) ) {
+                query.get();
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("locating input files interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof IOException ) throw (IOException)cause;
+            if( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Located " + total + " input files in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Gets the files of a resolved path, none if it does not exist.
+     */
+    List<FileLocation> get(Path path) {
+        List<FileLocation> files = locations.get(qualify(path));
+        if( files == null ) return Collections.emptyList();
+        return files;
+    }
+
+    /**
+     * Lists a directory and keeps the referenced entries.
+     */
+    private Callable<Void> listing(final Path dir, final Set<Path> refs) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                RemoteIterator<LocatedFileStatus> entries;
+                try {
+                    entries = fs.listLocatedStatus(dir);
+                } catch (FileNotFoundException ex) {
+                    progress(refs.size());
+                    return null;
+                }
+                while( entries.hasNext() ) {
+                    LocatedFileStatus status = entries.next();
+                    Path ref = qualify(status.getPath());
+                    if( !refs.contains(ref) ) continue;
+                    if( status.isDirectory() ) {
+                        List<FileLocation> files = new ArrayList<FileLocation>();
+                        listFiles(ref, files);
+                        locations.put(ref, files);
+                    } else {
+                        locations.put(ref, Collections.singletonList(
+                                    new FileLocation(status, status.getBlockLocations())));
+                    }
+                }
+                progress(refs.size());
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Queries a single referenced path.
+     */
+    private Callable<Void> lookup(final Path ref) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                FileStatus status;
+                try {
+                    status = fs.getFileStatus(ref);
+                } catch (FileNotFoundException ex) {
+                    progress(1);
+                    return null;
+                }
+                if( status.isDirectory() ) {
+                    List<FileLocation> files = new ArrayList<FileLocation>();
+                    listFiles(ref, files);
+                    locations.put(ref, files);
+                } else {
+                    locations.put(ref, Collections.singletonList(new FileLocation(status,
+                                    fs.getFileBlockLocations(status, 0, status.getLen()))));
+                }
+                progress(1);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Recursively collects the files of a directory.
+     */
+    private void listFiles(Path dir, List<FileLocation> files) throws IOException {
+        RemoteIterator<LocatedFileStatus> entries = fs.listLocatedStatus(dir);
+        while( entries.hasNext() ) {
+            LocatedFileStatus status = entries.next();
+            if( status.isDirectory() ) {
+                listFiles(status.getPath(), files);
+            } else {
+                files.add(new FileLocation(status, status.getBlockLocations()));
+            }
+        }
+    }
+
+    private void progress(int n) {
+        int before = located.getAndAdd(n);
+        if( (before + n) / PROGRESS_INTERVAL > before / PROGRESS_INTERVAL ) {
+            LOG.info("Located " + (before + n) + " of " + total + " input files");
+        }
+    }
+
+    /**
+     * Qualifies a path, so references and listed paths compare equal.
+     */
+    private Path qualify(Path path) {
+        return fs.getUri() == null ? path : fs.makeQualified(path);
+    }
+
+}
@@ -0,0 +1,110 @@
+package eu.scape_project.pt.proc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A toolspec operation's command compiled into literal segments and
+ * ${placeholder} slots.
+ *
+ * Rendering a command line fills the slots with parameter values,
+ * placeholders without a value are kept as they are.
+ */
+public class CommandTemplate {
+
+    /**
+     * Compiled templates by command.
+     */
+    private static final ConcurrentMap<String, CommandTemplate> TEMPLATES =
+        new ConcurrentHashMap<String, CommandTemplate>();
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final String PLACEHOLDER_END = "}";
+
+    /**
+     * Literal segments, segments[i] precedes slots[i].
+     */
+    private final String[] segments;
+
+    /**
+     * Parameter names of the placeholders.
+     */
+    private final String[] slots;
+
+    /**
+     * Length of all literal segments.
+     */
+    private final int literalLength;
+
+    private CommandTemplate(String[] segments, String[] slots) {
+        this.segments = segments;
+        this.slots = slots;
+        int length = 0;
+        for( String segment : segments )
+            length += segment.length();
+        this.literalLength = length;
+    }
+
+    /**
+     * Gets the compiled template of a command, compiling it only once.
+     */
+    public static CommandTemplate forCommand(String strCmd) {
+        CommandTemplate template = TEMPLATES.get(strCmd);
+        if( template == null ) {
+            template = compile(strCmd);
+            CommandTemplate other = TEMPLATES.putIfAbsent(strCmd, template);
+            if( other != null ) template = other;
+        }
+        return template;
+    }
+
+    /**
+     * Compiles a command containing ${key} placeholders.
+     */
+    public static CommandTemplate compile(String strCmd) {
+        List<String> segments = new ArrayList<String>();
+        List<String> slots = new ArrayList<String>();
+        int pos = 0;
+        int start;
+        while( (start = strCmd.indexOf(PLACEHOLDER_START, pos)) >= 0 ) {
+            int end = strCmd.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+            if( end < 0 ) break;
+            segments.add(strCmd.substring(pos, start));
+            slots.add(strCmd.substring(start + PLACEHOLDER_START.length(), end));
+            pos = end + PLACEHOLDER_END.length();
+        }
+        segments.add(strCmd.substring(pos));
+        return new CommandTemplate(
+                segments.toArray(new String[segments.size()]),
+                slots.toArray(new String[slots.size()]));
+    }
+
+    /**
+     * Replaces ${key}s by values.
+     */
+    public String render(Map<String, String> mapInputs) {
+        StringBuilder sb = new StringBuilder(literalLength + 32 * slots.length);
+        for( int i = 0; i < slots.length; i++ ) {
+            sb.append(segments[i]);
+            String value = mapInputs.get(slots[i]);
+            if( value != null ) {
+                sb.append(value);
+            } else {
+                sb.append(PLACEHOLDER_START).append(slots[i]).append(PLACEHOLDER_END);
+            }
+        }
+        sb.append(segments[slots.length]);
+        return sb.toString();
+    }
+
+    /**
+     * Gets the parameter names of the placeholders in order of occurrence.
+     */
+    public String[] getSlots() {
+        return slots.clone();
+    }
+
+}
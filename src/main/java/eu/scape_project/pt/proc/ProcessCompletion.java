@@ -0,0 +1,110 @@
+package eu.scape_project.pt.proc;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals the termination of a sub-process without polling.
+ *
+ * The waiting thread blocks in {@link Process#waitFor()}, which returns
+ * the moment the process exits. Timeouts are kept by a single shared timer
+ * thread interrupting the waiting thread, so no thread is taken per
+ * process besides the waiting one.
+ */
+class ProcessCompletion {
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final Process proc;
+
+    private volatile boolean exited = false;
+
+    private volatile int exitValue;
+
+    /**
+     * Watches the given process.
+     */
+    ProcessCompletion(Process proc) {
+        this.proc = proc;
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        return new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "tomar-process-timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Waits until the process has terminated or the timeout elapses.
+     *
+     * @return true if the process has terminated
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        if( exited ) return true;
+        Timeout t = new Timeout(Thread.currentThread());
+        ScheduledFuture<?> timer = TIMER.schedule(t, timeout, unit);
+        try {
+            exitValue = proc.waitFor();
+            exited = true;
+            return true;
+        } catch (InterruptedException ex) {
+            if( !t.elapsed ) throw ex;
+            return false;
+        } finally {
+            // cancelled timeouts are the rule, don't keep them until they are due
+            if( timer.cancel(false) ) TIMER.remove((Runnable)timer);
+            if( t.finish() ) {
+                // the timeout has interrupted the thread after all
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Gets the exit value of the terminated process.
+     */
+    int exitValue() {
+        if( !exited )
+            throw new IllegalThreadStateException("process has not exited");
+        return exitValue;
+    }
+
+    /**
+     * Interrupts a waiting thread unless it has finished waiting.
+     */
+    private static class Timeout implements Runnable {
+        private final Thread waiter;
+        private boolean finished = false;
+        private volatile boolean elapsed = false;
+
+        Timeout(Thread waiter) {
+            this.waiter = waiter;
+        }
+
+        @Override
+        public synchronized void run() {
+            if( finished ) return;
+            elapsed = true;
+            waiter.interrupt();
+        }
+
+        /**
+         * Ends the waiting.
+         *
+         * @return whether the timeout has interrupted the waiting thread
+         */
+        synchronized boolean finish() {
+            finished = true;
+            return elapsed;
+        }
+    }
+
+}
@@ -3,6 +3,8 @@ package eu.scape_project.pt.proc;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +36,16 @@ public abstract class Processor implements Runnable {
      */
     protected Processor prev;
 
+    /**
+     * Pump copying the previous processor's output to this one's input.
+     */
+    protected Future<?> pump;
+
+    /**
+     * Number of bytes copied from the previous processor.
+     */
+    private final AtomicLong bytesCopied = new AtomicLong();
+
     /**
      * Executes its process and provides the InputStream for the next processor.
      * @return exit code of process (0 for success)
@@ -97,6 +109,22 @@ public abstract class Processor implements Runnable {
         prevProcessor.next(this);
     }
 
+    /**
+     * Gets the number of bytes copied so far from the previous processor
+     * to this one.
+     */
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    /**
+     * Starts copying the previous processor's output to this processor's 
+     * input on a shared pump thread.
+     */
+    protected void startPump() {
+        this.pump = StreamPump.submit(this);
+    }
+
     @Override
     public void run() {
         LOG.debug(debugToken + " run");
@@ -107,48 +135,22 @@ public abstract class Processor implements Runnable {
             LOG.debug(debugToken + " copy prev.stdout to stdin");
             LOG.debug("instance of stdout: " + this.prev.getStdOut().getClass().getName() );
             LOG.debug("instance of stdin: " + oStdIn.getClass().getName() );
-            copyLarge(this.prev.getStdOut(), oStdIn);
+            StreamPump.copy(this.prev.getStdOut(), oStdIn, bytesCopied);
             this.prev.getStdOut().close();
             oStdIn.close();
+            LOG.debug(debugToken + " copied " + bytesCopied.get() + " bytes");
         } catch (IOException ex) {
             LOG.error("broken pipe");
             throw new RuntimeException(ex);
         }
     }
 
-    public abstract int waitFor() throws InterruptedException;
-
-    /**
-     * The default buffer size to use for 
-     * {@link #copyLarge(InputStream, OutputStream)}
-     */
-    private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
-    
     /**
-     * Copy bytes from a large (over 2GB) <code>InputStream</code> to an
-     * <code>OutputStream</code>.
-     * <p>
-     * This method buffers the input internally, so there is no need to use a
-     * <code>BufferedInputStream</code>.
-     * 
-     * @param input  the <code>InputStream</code> to read from
-     * @param output  the <code>OutputStream</code> to write to
-     * @return the number of bytes copied
-     * @throws NullPointerException if the input or output is null
-     * @throws IOException if an I/O error occurs
-     * @since Commons IO 1.3
+     * Waits for the processor to terminate.
+     *
+     * @return exit code of process (0 for success)
+     * @throws IOException if copying a stream has failed
      */
-    
-    private static long copyLarge(InputStream input, OutputStream output)
-            throws IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        long count = 0;
-        int n = 0;    	
-        while (-1 != (n = input.read(buffer))) {        	
-            output.write(buffer, 0, n);
-            count += n;
-        }
-        return count;
-    }
-    
+    public abstract int waitFor() throws InterruptedException, IOException;
+
 }
@@ -0,0 +1,126 @@
+package eu.scape_project.pt.proc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Drains a process' stderr into a ring buffer keeping only its last bytes,
+ * so a chatty tool neither blocks on a full pipe nor fills the memory.
+ *
+ * A drain lives as long as its process, so drains run on threads of their
+ * own, reused across processes, and do not take threads of the bounded
+ * {@link StreamPump} pool from the copies.
+ */
+final class StderrCapture implements Runnable {
+
+    private static Log LOG = LogFactory.getLog(StderrCapture.class);
+
+    /**
+     * Default number of stderr bytes kept.
+     */
+    static final int DEFAULT_SIZE = 64 * 1024;
+
+    /**
+     * Time to wait for the end of stderr when reading the tail.
+     */
+    private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+    private static final ExecutorService DRAINS = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tomar-stderr");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final InputStream in;
+
+    private final byte[] ring;
+
+    /**
+     * Next write position in the ring.
+     */
+    private int pos = 0;
+
+    /**
+     * Number of bytes read so far.
+     */
+    private long total = 0;
+
+    private Future<?> drain;
+
+    private StderrCapture(InputStream in, int size) {
+        this.in = in;
+        this.ring = new byte[Math.max(size, 1)];
+    }
+
+    /**
+     * Starts draining a stream on a drain thread.
+     *
+     * @param in stderr of a process
+     * @param size number of bytes to keep
+     */
+    static StderrCapture start(InputStream in, int size) {
+        StderrCapture capture = new StderrCapture(in, size);
+        capture.drain = DRAINS.submit(capture);
+        return capture;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int n;
+            // read directly into the ring, overwriting the oldest bytes
+            while( (n = in.read(ring, pos, ring.length - pos)) != -1 ) {
+                synchronized (this) {
+                    pos = (pos + n) % ring.length;
+                    total += n;
+                }
+            }
+        } catch (IOException ex) {
+            LOG.debug("reading stderr failed", ex);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LOG.debug("closing stderr failed", ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the last bytes of stderr, waiting for its end if the process
+     * has not closed it yet.
+     */
+    String getTail() throws InterruptedException {
+        try {
+            drain.get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            LOG.debug("stderr not closed yet, returning what has been read");
+        } catch (ExecutionException ex) {
+            LOG.debug("draining stderr failed", ex.getCause());
+        }
+        synchronized (this) {
+            if( total <= ring.length ) {
+                return new String(ring, 0, (int)total);
+            }
+            byte[] tail = new byte[ring.length];
+            System.arraycopy(ring, pos, tail, 0, ring.length - pos);
+            System.arraycopy(ring, 0, tail, ring.length - pos, pos);
+            return "[" + (total - ring.length) + " bytes skipped]\n" + new String(tail);
+        }
+    }
+
+}
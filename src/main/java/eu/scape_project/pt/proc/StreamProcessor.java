@@ -3,14 +3,16 @@ package eu.scape_project.pt.proc;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class StreamProcessor extends Processor {
 
     private static Log LOG = LogFactory.getLog(StreamProcessor.class);
-    private Thread t;
 
     /**
      * Creates a StreamProcessor that functions as a reader for the 
@@ -42,8 +44,7 @@ public class StreamProcessor extends Processor {
     public int execute() throws Exception {
         debugToken = 'S';
         LOG.debug("execute");
-        t = new Thread(this);
-        t.start();
+        startPump();
         if( this.next != null )
         {
             //this.next.setStdIn(oStdIn);
@@ -58,27 +59,32 @@ public class StreamProcessor extends Processor {
 
     /**
      * Waits for the previous processor to terminate.
+     *
+     * @return the previous processor's exit value
+     * @throws IOException if copying the stream has failed, e.g. writing
+     *         the output
      */
     @Override
-    public int waitFor() throws InterruptedException {
+    public int waitFor() throws InterruptedException, IOException {
     	if( this.prev == null ) return 0;        
         LOG.debug("waitFor");
     	int r = this.prev.waitFor();
     	if(r < 0) {
     		LOG.info("Terminating stream processor");
-        	t.interrupt();
+        	pump.cancel(true);
         	return -1;
     	}
-    	long timeout = EXECUTION_TIMEOUT_MINUTES*60*1000;
-    	long start = System.currentTimeMillis();
-    	t.join(timeout);
-    	long stop = System.currentTimeMillis();
-        if((stop - start) >= timeout) {
+    	try {
+    	    pump.get(EXECUTION_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    	} catch (TimeoutException ex) {
         	LOG.warn("Stream execution has reached timeout of "+ EXECUTION_TIMEOUT_MINUTES+" minutes. The process has been terminated!");
-        	t.interrupt();
+        	pump.cancel(true);
         	return -1;
-        }
-        return 0;
+    	} catch (ExecutionException ex) {
+    	    // the output is incomplete, though the tool may have succeeded
+    	    throw new IOException("stream copy failed", ex.getCause());
+    	}
+        return r;
     }
 
 }
@@ -0,0 +1,167 @@
+package eu.scape_project.pt.proc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Copies streams between processors.
+ *
+ * All processors of a JVM share a bounded pool of pump threads and a
+ * pool of reusable copy buffers, so chaining processors neither creates
+ * threads nor allocates buffers per copy.
+ */
+public final class StreamPump {
+
+    private static Log LOG = LogFactory.getLog(StreamPump.class);
+
+    /**
+     * Default size of a copy buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Default maximum number of pump threads.
+     */
+    public static final int DEFAULT_MAX_THREADS = 64;
+
+    /**
+     * Maximum number of extra threads started while all pump threads are
+     * busy.
+     */
+    static final int MAX_OVERFLOW_THREADS = 16;
+
+    private static final Semaphore OVERFLOW = new Semaphore(MAX_OVERFLOW_THREADS);
+
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private static final ConcurrentLinkedQueue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private static final ThreadPoolExecutor PUMPS = new ThreadPoolExecutor(
+        0, DEFAULT_MAX_THREADS, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tomar-pump-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        },
+        new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(final Runnable r, ThreadPoolExecutor executor) {
+                // pumps block until their stream ends, queueing them could deadlock a chain
+                if( !OVERFLOW.tryAcquire() ) {
+                    throw new RejectedExecutionException("all " + executor.getMaximumPoolSize()
+                            + " pump threads and " + MAX_OVERFLOW_THREADS 
+                            + " extra threads busy");
+                }
+                LOG.warn("all " + executor.getMaximumPoolSize()
+                        + " pump threads busy, starting an extra thread");
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            r.run();
+                        } finally {
+                            OVERFLOW.release();
+                        }
+                    }
+                }, "tomar-pump-overflow");
+                t.setDaemon(true);
+                t.start();
+            }
+        });
+
+    private StreamPump() {
+    }
+
+    /**
+     * Sets size of copy buffers and maximum number of pump threads.
+     */
+    public static synchronized void configure(int bufferSize, int maxThreads) {
+        if( bufferSize != StreamPump.bufferSize ) {
+            StreamPump.bufferSize = bufferSize;
+            BUFFERS.clear();
+            pooledBuffers.set(0);
+        }
+        if( maxThreads != PUMPS.getMaximumPoolSize() ) {
+            PUMPS.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    /**
+     * Runs the pump on a shared pump thread.
+     */
+    static Future<?> submit(Runnable pump) {
+        return PUMPS.submit(pump);
+    }
+
+    /**
+     * Copy bytes from a large (over 2GB) <code>InputStream</code> to an
+     * <code>OutputStream</code> using a pooled buffer.
+     *
+     * @param input  the <code>InputStream</code> to read from
+     * @param output  the <code>OutputStream</code> to write to
+     * @param counter is incremented by the number of bytes copied
+     * @return the number of bytes copied
+     * @throws IOException if an I/O error occurs
+     */
+    static long copy(InputStream input, OutputStream output, AtomicLong counter)
+            throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long count = 0;
+            int n = 0;
+            while (-1 != (n = input.read(buffer))) {
+                output.write(buffer, 0, n);
+                count += n;
+                counter.addAndGet(n);
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static byte[] acquire() {
+        byte[] buffer = BUFFERS.poll();
+        if( buffer == null ) {
+            return new byte[bufferSize];
+        }
+        pooledBuffers.decrementAndGet();
+        if( buffer.length != bufferSize ) {
+            return new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    private static void release(byte[] buffer) {
+        if( buffer.length != bufferSize ) return;
+        // do not keep more buffers than pump threads may use at once
+        if( pooledBuffers.incrementAndGet() > PUMPS.getMaximumPoolSize() ) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        BUFFERS.offer(buffer);
+    }
+
+}
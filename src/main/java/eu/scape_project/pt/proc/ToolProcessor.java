@@ -7,13 +7,12 @@ import eu.scape_project.tool.toolwrapper.data.tool_spec.Output;
 import eu.scape_project.tool.toolwrapper.data.tool_spec.Parameter;
 import eu.scape_project.tool.toolwrapper.data.tool_spec.Tool;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,11 +27,27 @@ public class ToolProcessor extends Processor {
 
     private static Log LOG = LogFactory.getLog(ToolProcessor.class);
 
+    /**
+     * Default number of stderr bytes kept.
+     */
+    public static final int DEFAULT_STDERR_SIZE = StderrCapture.DEFAULT_SIZE;
+
+    /**
+     * Seconds to wait for an earlier process of the chain after this one
+     * has exited.
+     */
+    private static final int EARLIER_EXIT_SECONDS = 1;
+
     /**
      * Operation of a Tool to use.
      */
     private Operation operation;
 
+    /**
+     * Compiled command of the operation.
+     */
+    private CommandTemplate template;
+
     /**
      * Tool to use.
      */
@@ -58,8 +73,57 @@ public class ToolProcessor extends Processor {
      */
     private Process proc;
 
+    /**
+     * Completion of the sub-process.
+     */
+    private ProcessCompletion completion;
+
+    /**
+     * Last bytes of the sub-process' stderr.
+     */
+    private StderrCapture stderr;
+
+    /**
+     * Number of stderr bytes to keep.
+     */
+    private int stderrSize = DEFAULT_STDERR_SIZE;
+
     private File workingDir = null;
 
+    /**
+     * Whether a directly following ToolProcessor is fused into one pipeline.
+     */
+    private boolean pipeFusion = true;
+
+    /**
+     * How to execute the command.
+     */
+    private ExecMode execMode = ExecMode.AUTO;
+
+    /**
+     * Shell supporting pipefail, which runs fused pipelines so the failure
+     * of any of their commands is reported, or null if there is none and
+     * processors are not fused.
+     */
+    private static final String PIPEFAIL_SHELL = findPipefailShell();
+
+    /**
+     * Characters which need a shell to be interpreted.
+     */
+    private static final String SHELL_CHARS = "|&;<>()$`\\\"'*?[]{}~#!\n\r";
+
+    /**
+     * Ways to execute a command.
+     */
+    public enum ExecMode {
+        /** execute directly if the command uses no shell features */
+        AUTO,
+        /** always wrap the command in a shell */
+        SHELL,
+        /** always execute the command directly, splitting it at whitespace */
+        DIRECT
+    }
+
     /**
      * Constructs the processor with a tool and an action of a
      * toolspec.
@@ -91,16 +155,104 @@ public class ToolProcessor extends Processor {
      */
     public void setOperation( Operation op ) {
         this.operation = op;
+        this.template = op == null ? null : CommandTemplate.forCommand(op.getCommand());
     }
 
     /**
      * Executes the tool, optionally reading from a previous process (stdin).
      * All input file parameters need to be local to the machine.
+     *
+     * If pipe fusion is enabled, directly following ToolProcessors are 
+     * executed together with this one as a single shell pipeline, so data 
+     * between them flows through OS pipes and not through the JVM. The 
+     * pipeline is run by bash with pipefail, so it fails like the chain 
+     * would if any of its commands fails.
+     *
+     * Depending on the {@link ExecMode} a single command is either 
+     * wrapped in a shell or executed directly.
      */
     @Override
     public int execute() throws Exception {
         LOG.debug("execute");
 
+        String strCmd = getCommandLine();
+
+        // fuse following tools into one pipeline
+        ToolProcessor last = this;
+        while( last.pipeFusion && PIPEFAIL_SHELL != null 
+                && last.next instanceof ToolProcessor 
+                && sameWorkingDir(this, (ToolProcessor)last.next)) {
+            last = (ToolProcessor)last.next;
+            strCmd = (last == this.next ? "(" + strCmd + ")" : strCmd)
+                + " | (" + last.getCommandLine() + ")";
+        }
+        LOG.info("executing " + strCmd );
+
+        String[] cmd = null;
+        if( last == this ) {
+            cmd = directArgv(strCmd);
+        } else {
+            cmd = new String[]{PIPEFAIL_SHELL, "-o", "pipefail", "-c", strCmd};
+        }
+        if( cmd == null ) {
+            cmd = shellArgv(strCmd);
+        } else {
+            LOG.debug("executing without shell");
+        }
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(this.workingDir);
+        proc = pb.start();
+        try {
+            completion = new ProcessCompletion(proc);
+            stderr = StderrCapture.start(proc.getErrorStream(), stderrSize);
+
+            this.setStdIn(proc.getOutputStream());
+            this.setStdOut(proc.getInputStream());
+
+            // fused processors share the pipeline's process and output
+            for( ToolProcessor fused = this; fused != last; ) {
+                fused = (ToolProcessor)fused.next;
+                fused.proc = proc;
+                fused.completion = completion;
+                fused.setStdOut(proc.getInputStream());
+            }
+
+            startPump();
+
+            if( last.next != null )
+                return last.next.execute();
+
+            return proc.waitFor();
+        } catch (Exception ex) {
+            // e.g. no pump thread left, the process would wait for its stdin forever
+            destroy(proc);
+            throw ex;
+        }
+    }
+
+    /**
+     * Kills a process and closes its streams.
+     */
+    private static void destroy(Process proc) {
+        proc.destroy();
+        closeQuietly(proc.getOutputStream());
+        closeQuietly(proc.getInputStream());
+        closeQuietly(proc.getErrorStream());
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        try {
+            stream.close();
+        } catch (IOException ex) {
+            LOG.debug("closing stream of destroyed process failed", ex);
+        }
+    }
+
+    /**
+     * Gets the operation's command with all placeholders replaced by
+     * the parameters' values.
+     */
+    public String getCommandLine() {
         Map<String, String> allInputs = new HashMap<String, String>();
         allInputs.putAll(getInputFileParameters());
         allInputs.putAll(getOutputFileParameters());
@@ -110,34 +262,110 @@ public class ToolProcessor extends Processor {
             LOG.debug("Key: " + entry.getKey() + " = " + entry.getValue());
         }
 
-        String strCmd = replaceAll(this.operation.getCommand(), allInputs);
-        LOG.info("executing " + strCmd );
+        return this.template.render(allInputs);
+    }
 
-        String[] cmd;
-        if( System.getProperty("os.name").startsWith("Windows")){
-            cmd = new String[]{"cmd.exe", "/C", strCmd};
-        } else {
-            cmd = new String[]{"sh", "-c", strCmd};
+    /**
+     * Gets the arguments to execute the command directly or null if
+     * it needs to be executed by a shell.
+     */
+    private String[] directArgv(String strCmd) {
+        switch( execMode ) {
+            case DIRECT:
+                return strCmd.trim().split("\\s+");
+            case AUTO:
+                return isWindows() ? null : toArgv(strCmd);
+            default:
+                return null;
         }
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectErrorStream(true);
-        pb.directory(this.workingDir);
-        proc = pb.start();
+    }
+
+    /**
+     * Splits a command into its arguments if it uses no shell features
+     * like pipes, redirects, globs, quotes, variables or assignments.
+     *
+     * @return arguments or null if the command needs a shell
+     */
+    static String[] toArgv(String strCmd) {
+        for( int i = 0; i < strCmd.length(); i++ ) {
+            if( SHELL_CHARS.indexOf(strCmd.charAt(i)) >= 0 ) 
+                return null;
+        }
+        String[] argv = strCmd.trim().split("\\s+");
+        if( argv[0].isEmpty() || argv[0].indexOf('=') >= 0 )
+            return null;
+        return argv;
+    }
 
-        this.setStdIn(proc.getOutputStream());
-        this.setStdOut(proc.getInputStream());
+    /**
+     * Gets the arguments to execute a command by the system's shell.
+     */
+    static String[] shellArgv(String strCmd) {
+        if( isWindows() ){
+            return new String[]{"cmd.exe", "/C", strCmd};
+        }
+        return new String[]{"sh", "-c", strCmd};
+    }
 
-        new Thread(this).start();
+    private static boolean isWindows() {
+        return System.getProperty("os.name").startsWith("Windows");
+    }
+
+    private static String findPipefailShell() {
+        if( isWindows() ) return null;
+        for( String shell : new String[]{"/bin/bash", "/usr/bin/bash"} ) {
+            if( new File(shell).canExecute() ) return shell;
+        }
+        LOG.info("bash not found, piped tools are not fused");
+        return null;
+    }
+
+    private static boolean sameWorkingDir(ToolProcessor p1, ToolProcessor p2) {
+        return p1.workingDir == null 
+            ? p2.workingDir == null 
+            : p1.workingDir.equals(p2.workingDir);
+    }
+
+    /**
+     * Enables or disables fusing this processor with a directly following 
+     * ToolProcessor into one shell pipeline. Enabled by default, but 
+     * processors are only fused where bash is available.
+     */
+    public void setPipeFusion(boolean pipeFusion) {
+        this.pipeFusion = pipeFusion;
+    }
 
-        if( this.next != null )
-            return this.next.execute();
+    /**
+     * Sets the number of bytes kept of the sub-process' stderr.
+     */
+    public void setStderrSize(int stderrSize) {
+        this.stderrSize = stderrSize;
+    }
 
-        return proc.waitFor();
+    /**
+     * Gets the last bytes the sub-process has written to stderr. The stderr
+     * of processors fused into one pipeline is kept by the first one.
+     *
+     * @return stderr or null if not executed (by this processor)
+     */
+    public String getStderr() throws InterruptedException {
+        return stderr == null ? null : stderr.getTail();
+    }
 
+    /**
+     * Sets whether the command is wrapped in a shell. Default is 
+     * {@link ExecMode#AUTO}.
+     */
+    public void setExecMode(ExecMode execMode) {
+        this.execMode = execMode;
     }
 
     /** 
      * Waits for the sub-process to terminate.
+     *
+     * @return the exit value of the first process of the chain which has
+     *         failed, a fused pipeline exiting with the status of its last 
+     *         failing command, or -1 on timeout
      */
     @Override
     public int waitFor() throws InterruptedException {
@@ -147,45 +375,39 @@ public class ToolProcessor extends Processor {
         //java8 boolean procCompleted = proc.waitFor((new Long(EXECUTION_TIMEOUT_MINUTES)).longValue(), TimeUnit.MINUTES);
         boolean procCompleted = waitFor((new Long(EXECUTION_TIMEOUT_MINUTES)).longValue(), TimeUnit.MINUTES);
         if(!procCompleted) {
+        	proc.destroy();
         	LOG.warn("Tool execution has reached timeout of "+ EXECUTION_TIMEOUT_MINUTES+" minutes. The process has been terminated!");
         	return -1;
         }
-        return 0;
+        int exitValue = completion.exitValue();
+        // processes earlier in the chain have usually exited before this one
+        // got the end of its input, one still running is not waited for
+        for( Processor p = prev; p != null; p = p.prev ) {
+            if( !(p instanceof ToolProcessor) ) continue;
+            ProcessCompletion earlier = ((ToolProcessor)p).completion;
+            if( earlier == null || earlier == completion ) continue;
+            if( earlier.await(EARLIER_EXIT_SECONDS, TimeUnit.SECONDS) 
+                    && earlier.exitValue() != 0 ) {
+                exitValue = earlier.exitValue();
+            }
+        }
+        return exitValue;
     }
-    
-    
-    
+
     /**
-     * Copied here for compliance with java 7
-     * 
      * Causes the current thread to wait, if necessary, until the
      * subprocess represented by this {@code Process} object has
      * terminated, or the specified waiting time elapses.
+     *
+     * The waiting thread is woken up as soon as the process exits.
+     *
+     * @return true if the process has terminated
      */
     public boolean waitFor(long timeout, TimeUnit unit)
         throws InterruptedException
     {
-        long startTime = System.nanoTime();
-        long rem = unit.toNanos(timeout);
-
-        do {
-            try {
-            	proc.exitValue();
-                return true;
-            } catch(IllegalThreadStateException ex) {
-                if (rem > 0)
-                    Thread.sleep(
-                        Math.min(TimeUnit.NANOSECONDS.toMillis(rem) + 1, 100));
-            }
-            rem = unit.toNanos(timeout) - (System.nanoTime() - startTime);
-        } while (rem > 0);
-        return false;
+        return completion.await(timeout, unit);
     }
-    
-    
-    
-    
-    
 
     @Override
     public void initialize() {
@@ -274,49 +496,6 @@ public class ToolProcessor extends Processor {
         this.mapOutputFileParameters = mapOutput;
     }
 
-    /**
-     * Replaces ${key}s in given command strCmd by values.
-     */
-     private String replaceAll(String strCmd, Map<String,String> mapInputs) {
-         if( mapInputs.isEmpty() ) return strCmd;
-        // create the pattern wrapping the keys with ${} and join them with '|'
-        StringBuilder regexp = new StringBuilder();
-        for( String input : mapInputs.keySet())
-            regexp.append(parameterToPlaceholder(input));
-        regexp.setLength(regexp.length() - 1);
-
-        LOG.debug("replaceAll.regexp = " + regexp );
-        StringBuffer sb = new StringBuffer();
-        Pattern p = Pattern.compile(regexp.toString());
-        Matcher m = p.matcher(strCmd);
-
-        while (m.find())
-        {
-            String param = placeholderToParameter(m.group());
-            m.appendReplacement(sb, mapInputs.get(param));
-        }
-        m.appendTail(sb);
-
-        return sb.toString();
-
-    }
-
-    /**
-     * Maps a parameter name to the placeholder's form.
-     * Inverse of placeholderToParameter.
-     */
-    private String parameterToPlaceholder( String strParameter ) {
-        return "\\$\\{" + strParameter + "\\}|"; 
-    }
-
-    /**
-     * Maps a placeholder to its parameter name.
-     * Inverse of parameterToPlaceholder.
-     */
-    private String placeholderToParameter( String strVariable ) {
-        return strVariable.substring(2, strVariable.length() - 1 );
-    }
-
     public void setWorkingDir(String workingDir) throws IOException {
         File dir = new File(workingDir);
         if( !dir.exists() ) 
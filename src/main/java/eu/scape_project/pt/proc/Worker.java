@@ -0,0 +1,178 @@
+package eu.scape_project.pt.proc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A long-running tool process serving many requests.
+ *
+ * Protocol: each request is written as a single line to the worker's stdin.
+ * The worker answers on its stdout with any number of output lines followed
+ * by a line consisting of {@link #END_OF_RESPONSE}, a blank and the exit
+ * code of the request.
+ */
+public class Worker {
+
+    private static Log LOG = LogFactory.getLog(Worker.class);
+
+    /**
+     * Marks the end of a response.
+     */
+    public static final String END_OF_RESPONSE = "%%TOMAR-END%%";
+
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tomar-worker-reader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final String key;
+    private final Process proc;
+    private final Writer stdin;
+    private final BufferedReader stdout;
+    private final StderrCapture stderr;
+    private int requests = 0;
+    private boolean broken = false;
+
+    /**
+     * Starts a worker process.
+     *
+     * @param key identifies the kind of worker
+     * @param strCmd command starting the worker
+     * @param workingDir working directory of the process
+     */
+    public Worker(String key, String strCmd, File workingDir) throws IOException {
+        this.key = key;
+        LOG.info("starting worker " + strCmd);
+        ProcessBuilder pb = new ProcessBuilder(ToolProcessor.shellArgv(strCmd));
+        pb.directory(workingDir);
+        this.proc = pb.start();
+        this.stderr = StderrCapture.start(proc.getErrorStream(), StderrCapture.DEFAULT_SIZE);
+        this.stdin = new OutputStreamWriter(proc.getOutputStream());
+        this.stdout = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+    }
+
+    /**
+     * Sends a request to the worker and copies the response to out.
+     *
+     * @param request single line request
+     * @param out receives the response
+     * @param timeout maximum time to wait for the response
+     * @return exit code of the request
+     * @throws IOException if the worker fails or times out, it must not
+     *         be used any more then
+     */
+    public int request(String request, final OutputStream out, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        if( request.indexOf('\n') >= 0 || request.indexOf('\r') >= 0 )
+            throw new IOException("request must be a single line: " + request);
+        requests++;
+        Future<Integer> response = READERS.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return readResponse(out);
+            }
+        });
+        try {
+            stdin.write(request);
+            stdin.write('\n');
+            stdin.flush();
+            return response.get(timeout, unit);
+        } catch (IOException ex) {
+            destroy();
+            throw ex;
+        } catch (TimeoutException ex) {
+            LOG.warn("worker " + key + " has not responded within " + timeout
+                    + " " + unit + ", terminating it");
+            destroy();
+            throw new IOException("worker request timed out: " + request);
+        } catch (ExecutionException ex) {
+            destroy();
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Reads output lines until the end of the response.
+     */
+    private int readResponse(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out);
+        String line;
+        while( (line = stdout.readLine()) != null ) {
+            if( line.startsWith(END_OF_RESPONSE) ) {
+                writer.flush();
+                try {
+                    return Integer.parseInt(line.substring(END_OF_RESPONSE.length()).trim());
+                } catch (NumberFormatException ex) {
+                    throw new IOException("invalid end of response: " + line);
+                }
+            }
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+        String tail;
+        try {
+            tail = stderr.getTail();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            tail = "";
+        }
+        throw new IOException("worker " + key + " terminated unexpectedly, stderr:\n" + tail);
+    }
+
+    /**
+     * Gets the kind of worker.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the number of requests sent to this worker.
+     */
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Whether the worker has failed and must not be used any more.
+     */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Stops the worker by closing its stdin and destroying the process.
+     */
+    public void destroy() {
+        broken = true;
+        try {
+            stdin.close();
+        } catch (IOException ex) {
+            LOG.debug("closing stdin of worker " + key + " failed", ex);
+        }
+        proc.destroy();
+    }
+
+}
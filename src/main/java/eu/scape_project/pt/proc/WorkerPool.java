@@ -0,0 +1,127 @@
+package eu.scape_project.pt.proc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps warm {@link Worker}s per kind of worker and routes requests to them.
+ *
+ * Workers are started on demand, reused for subsequent requests and
+ * recycled after a maximum number of requests or when they fail.
+ */
+public class WorkerPool {
+
+    private static Log LOG = LogFactory.getLog(WorkerPool.class);
+
+    /**
+     * Default maximum number of requests one worker serves.
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 1000;
+
+    private final int maxRequests;
+
+    private final File workingDir;
+
+    /**
+     * Idle workers by kind.
+     */
+    private final Map<String, LinkedList<Worker>> idle = new HashMap<String, LinkedList<Worker>>();
+
+    /**
+     * All running workers.
+     */
+    private final List<Worker> workers = new ArrayList<Worker>();
+
+    private boolean closed = false;
+
+    /**
+     * @param maxRequests number of requests after which a worker is recycled
+     * @param workingDir working directory of the workers
+     */
+    public WorkerPool(int maxRequests, File workingDir) {
+        this.maxRequests = maxRequests;
+        this.workingDir = workingDir;
+    }
+
+    /**
+     * Executes a request by an idle worker of the given kind, starting a
+     * new worker if there is none.
+     *
+     * @param key kind of worker, eg. tool and action
+     * @param strCmd command to start a new worker
+     * @param request single line request
+     * @param out receives the response
+     * @return exit code of the request
+     */
+    public int execute(String key, String strCmd, String request, OutputStream out)
+            throws IOException, InterruptedException {
+        Worker worker = acquire(key, strCmd);
+        try {
+            return worker.request(request, out,
+                    Processor.EXECUTION_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } finally {
+            release(worker);
+        }
+    }
+
+    private Worker acquire(String key, String strCmd) throws IOException {
+        synchronized (this) {
+            if( closed )
+                throw new IOException("worker pool is closed");
+            LinkedList<Worker> workersOfKey = idle.get(key);
+            if( workersOfKey != null && !workersOfKey.isEmpty() )
+                return workersOfKey.removeFirst();
+        }
+        Worker worker = new Worker(key, strCmd, workingDir);
+        synchronized (this) {
+            workers.add(worker);
+        }
+        return worker;
+    }
+
+    private synchronized void release(Worker worker) {
+        if( closed || worker.isBroken() || worker.getRequests() >= maxRequests ) {
+            LOG.debug("recycling worker " + worker.getKey() + " after "
+                    + worker.getRequests() + " requests");
+            worker.destroy();
+            workers.remove(worker);
+            return;
+        }
+        LinkedList<Worker> workersOfKey = idle.get(worker.getKey());
+        if( workersOfKey == null ) {
+            workersOfKey = new LinkedList<Worker>();
+            idle.put(worker.getKey(), workersOfKey);
+        }
+        workersOfKey.addFirst(worker);
+    }
+
+    /**
+     * Gets the number of running workers.
+     */
+    public synchronized int size() {
+        return workers.size();
+    }
+
+    /**
+     * Stops all workers.
+     */
+    public synchronized void close() {
+        closed = true;
+        for( Worker worker : workers ) {
+            worker.destroy();
+        }
+        workers.clear();
+        idle.clear();
+    }
+
+}
@@ -19,6 +19,78 @@ public class PropertyNames {
     // nInputFormat
     public static final String LINES_PER_MAP = "mapreduce.input.lineinputformat.linespermap";
 
+    // ControlFileInputFormat
+    /** number of concurrent NameNode queries locating the input files of control lines */
+    public static final String SPLIT_THREADS = "tomar.split.threads";
+    /** minimum number of referenced files in a directory for listing it at once */
+    public static final String SPLIT_LIST_THRESHOLD = "tomar.split.list.threshold";
+    /** lines (default), bytes or runtime, whether splits are balanced by the number of lines, input bytes or predicted runtime */
+    public static final String SPLIT_POLICY = "tomar.split.policy";
+    /** number of input bytes per split, by default those of N average lines */
+    public static final String SPLIT_BYTES = "tomar.split.bytes";
+    /** minimum number of lines of a split balanced by input bytes or runtime */
+    public static final String SPLIT_MIN_LINES = "tomar.split.min.lines";
+    /** maximum number of lines of a split balanced by input bytes or runtime */
+    public static final String SPLIT_MAX_LINES = "tomar.split.max.lines";
+    /** predicted seconds per split, by default those of N average lines */
+    public static final String SPLIT_SECONDS = "tomar.split.seconds";
+    /** HDFS file of the runtimes per tool/action recorded by the jobs, recording is off if not set */
+    public static final String HISTORY = "tomar.history";
+
+    // ToolspecMapper
+    /** number of control lines a single map task executes concurrently */
+    public static final String MAP_THREADS = "tomar.map.threads";
+    /** number of control lines localized ahead of the executing one */
+    public static final String PREFETCH_DEPTH = "tomar.prefetch.depth";
+    /** maximum number of bytes localized ahead */
+    public static final String PREFETCH_BYTES = "tomar.prefetch.bytes";
+    /** whether output files are collected in a container per task */
+    public static final String OUTPUT_CONTAINER = "tomar.output.container";
+    /** maximum number of bytes of a file put into an output container */
+    public static final String OUTPUT_CONTAINER_MAX_SIZE = "tomar.output.container.max.size";
+    /** whether the output containers are unpacked after the job */
+    public static final String OUTPUT_CONTAINER_UNPACK = "tomar.output.container.unpack";
+
+    // ToolWrapper
+    /** whether piped tools are executed as one shell pipeline */
+    public static final String PIPE_FUSION = "tomar.pipe.fusion";
+    /** auto, shell or direct; may be suffixed by .{tool}.{action} */
+    public static final String EXEC_MODE = "tomar.exec.mode";
+    /** suffixed by .{tool}.{action}, marks an operation as batchable */
+    public static final String BATCH = "tomar.batch";
+    /** maximum number of control lines in one batch */
+    public static final String BATCH_SIZE = "tomar.batch.size";
+    /** suffixed by .{tool}.{action}, command starting a warm worker for the operation */
+    public static final String WORKER = "tomar.worker";
+    /** number of requests after which a worker is recycled */
+    public static final String WORKER_MAX_REQUESTS = "tomar.worker.max.requests";
+    /** size of the buffers used to copy streams between processors */
+    public static final String PUMP_BUFFER_SIZE = "tomar.pump.buffer.size";
+    /** maximum number of threads copying streams between processors */
+    public static final String PUMP_THREADS = "tomar.pump.threads";
+    /** number of bytes of a tool's output kept in memory before spilling to disk */
+    public static final String STDOUT_MEMORY = "tomar.stdout.memory";
+    /** number of bytes kept of a tool's stderr, reported if the tool fails */
+    public static final String STDERR_SIZE = "tomar.stderr.size";
+    /** node-local directory caching localized files, caching is disabled if unset */
+    public static final String CACHE_DIR = "tomar.cache.dir";
+    /** maximum number of bytes in the localization cache */
+    public static final String CACHE_SIZE = "tomar.cache.size";
+    /** maximum number of files localized or delocalized in parallel */
+    public static final String TRANSFER_THREADS = "tomar.transfer.threads";
+    /** suffixed by .{tool}.{action}.{input}, streams the input through a named pipe */
+    public static final String FIFO = "tomar.fifo";
+    /** suffixed by .{scheme}, FilerFactory class creating the Filers of a URI scheme */
+    public static final String FILER = "tomar.filer";
+    /** none, auto (by extension) or the name of a compression codec decompressing stdin redirections */
+    public static final String CODEC_STDIN = "tomar.codec.stdin";
+    /** none, auto (by extension) or the name of a compression codec compressing stdout redirections */
+    public static final String CODEC_STDOUT = "tomar.codec.stdout";
+    /** comma-separated WARC-Types of the records processed from WARC files, empty for all */
+    public static final String RECORD_TYPES = "tomar.records.types";
+    /** maximum number of bytes of a compressed WARC or ARC file processed by one control line */
+    public static final String RECORD_SPLIT_SIZE = "tomar.records.split.size";
+
     private PropertyNames() {
     }
     
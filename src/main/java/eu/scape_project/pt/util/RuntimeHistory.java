@@ -0,0 +1,332 @@
+package eu.scape_project.pt.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Runtime statistics of control lines per tool/action, used to predict
+ * the runtime of a control line from the bytes of its input files.
+ *
+ * The runtime of a tool/action is modelled as a fixed overhead plus
+ * seconds per byte, fitted by least squares to the recorded lines. Map
+ * tasks record their lines into files "runtimes-*" in the job's output
+ * directory, which are merged into a history file after the job.
+ *
+ * The statistics are kept as text, one tool/action per line: the key,
+ * the number of lines and the sums of bytes, seconds, bytes squared and
+ * bytes times seconds, separated by tabs.
+ *
+ * Like the split planner, a line reading archive members counts with 
+ * the bytes of each archive divided by the number of lines reading its
+ * members, which are known when the history is written.
+ */
+public class RuntimeHistory {
+
+    private static Log LOG = LogFactory.getLog(RuntimeHistory.class);
+
+    /**
+     * Prefix of the names of the files written by the map tasks.
+     */
+    public static final String PREFIX = "runtimes";
+
+    private static final String SEP = "\t";
+
+    /**
+     * Sums of the recorded lines of a tool/action.
+     */
+    static class Stats {
+        long lines;
+        double bytes;
+        double seconds;
+        double bytesSquared;
+        double bytesSeconds;
+
+        void add(double x, double y) {
+            lines += 1;
+            bytes += x;
+            seconds += y;
+            bytesSquared += x * x;
+            bytesSeconds += x * y;
+        }
+
+        void add(Stats other) {
+            lines += other.lines;
+            bytes += other.bytes;
+            seconds += other.seconds;
+            bytesSquared += other.bytesSquared;
+            bytesSeconds += other.bytesSeconds;
+        }
+
+        /**
+         * Gets overhead and seconds per byte of the least squares line,
+         * neither of them negative.
+         */
+        double[] fit() {
+            if( lines == 0 ) return new double[] { 0, 0 };
+            double n = lines;
+            double d = n * bytesSquared - bytes * bytes;
+            // lines of about the same size don't tell the slope
+            if( d <= 1e-9 * n * bytesSquared ) {
+                return new double[] { seconds / n, 0 };
+            }
+            double perByte = (n * bytesSeconds - bytes * seconds) / d;
+            double overhead = (seconds - perByte * bytes) / n;
+            if( perByte < 0 ) return new double[] { seconds / n, 0 };
+            if( overhead < 0 ) return new double[] { 0, seconds / bytes };
+            return new double[] { overhead, perByte };
+        }
+    }
+
+    /**
+     * A line reading archive members, recorded when the history is written.
+     */
+    private static class ArchiveLine {
+        final String key;
+        final long bytes;
+        final Map<String, Long> archives;
+        final double seconds;
+
+        ArchiveLine(String key, long bytes, Map<String, Long> archives, double seconds) {
+            this.key = key;
+            this.bytes = bytes;
+            this.archives = archives;
+            this.seconds = seconds;
+        }
+    }
+
+    private final Map<String, Stats> stats = new TreeMap<String, Stats>();
+
+    private final List<ArchiveLine> archiveLines = new ArrayList<ArchiveLine>();
+
+    /**
+     * Number of lines reading the members of each archive.
+     */
+    private final Map<String, Integer> linesPerArchive = new HashMap<String, Integer>();
+
+    /**
+     * Gets the key of the tool/action(s) of a control line, the
+     * tool/action pairs of a pipe separated by "|".
+     */
+    public static String key(Command[] commands) {
+        StringBuilder key = new StringBuilder();
+        for( Command command : commands ) {
+            if( key.length() > 0 ) key.append('|');
+            key.append(command.getTool()).append('/').append(command.getAction());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Records a control line.
+     *
+     * @param key tool/action(s) of the line
+     * @param bytes bytes of the line's input files
+     * @param seconds runtime of the line
+     */
+    public synchronized void add(String key, long bytes, double seconds) {
+        get(key).add(bytes, seconds);
+    }
+
+    /**
+     * Records a control line reading archive members.
+     *
+     * @param key tool/action(s) of the line
+     * @param bytes bytes of the line's other input files
+     * @param archives map of archive reference -> bytes of the archives
+     *        of the line's archive members
+     * @param seconds runtime of the line
+     */
+    public synchronized void add(String key, long bytes, Map<String, Long> archives, 
+            double seconds) {
+        if( archives.isEmpty() ) {
+            add(key, bytes, seconds);
+            return;
+        }
+        archiveLines.add(new ArchiveLine(key, bytes, archives, seconds));
+        for( String archive : archives.keySet() ) {
+            Integer n = linesPerArchive.get(archive);
+            linesPerArchive.put(archive, n == null ? 1 : n + 1);
+        }
+    }
+
+    /**
+     * Records the lines reading archive members with their shares of the
+     * archives.
+     */
+    private void addArchiveLines() {
+        for( ArchiveLine line : archiveLines ) {
+            long bytes = line.bytes;
+            for( Entry<String, Long> archive : line.archives.entrySet() ) {
+                bytes += archive.getValue() / linesPerArchive.get(archive.getKey());
+            }
+            add(line.key, bytes, line.seconds);
+        }
+        archiveLines.clear();
+        linesPerArchive.clear();
+    }
+
+    /**
+     * Adds the lines recorded by another history.
+     */
+    public synchronized void add(RuntimeHistory other) {
+        for( Entry<String, Stats> entry : other.stats.entrySet() ) {
+            get(entry.getKey()).add(entry.getValue());
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return stats.isEmpty() && archiveLines.isEmpty();
+    }
+
+    /**
+     * Gets the fixed overhead of a tool/action in seconds.
+     */
+    public synchronized double getOverhead(String key) {
+        return statsOf(key).fit()[0];
+    }
+
+    /**
+     * Gets the seconds per byte of a tool/action.
+     */
+    public synchronized double getSecondsPerByte(String key) {
+        return statsOf(key).fit()[1];
+    }
+
+    /**
+     * Predicts the runtime of a control line. Tool/actions without history
+     * are predicted by the statistics of all tool/actions.
+     *
+     * @param key tool/action(s) of the line
+     * @param bytes bytes of the line's input files
+     * @return runtime in seconds
+     */
+    public synchronized double predict(String key, long bytes) {
+        double[] fit = statsOf(key).fit();
+        return fit[0] + fit[1] * bytes;
+    }
+
+    private Stats get(String key) {
+        Stats s = stats.get(key);
+        if( s == null ) {
+            s = new Stats();
+            stats.put(key, s);
+        }
+        return s;
+    }
+
+    private Stats statsOf(String key) {
+        Stats s = stats.get(key);
+        if( s != null ) return s;
+        Stats all = new Stats();
+        for( Stats other : stats.values() ) {
+            all.add(other);
+        }
+        return all;
+    }
+
+    /**
+     * Reads a history, empty if the file doesn't exist.
+     */
+    public static RuntimeHistory read(FileSystem fs, Path file) throws IOException {
+        RuntimeHistory history = new RuntimeHistory();
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(fs.open(file), "UTF-8"));
+        } catch (FileNotFoundException ex) {
+            return history;
+        }
+        try {
+            String line;
+            while( (line = in.readLine()) != null ) {
+                if( line.isEmpty() ) continue;
+                String[] fields = line.split(SEP);
+                if( fields.length != 6 ) {
+                    throw new IOException("malformed runtime history " + file + ": " + line);
+                }
+                Stats s = history.get(fields[0]);
+                try {
+                    s.lines += Long.parseLong(fields[1]);
+                    s.bytes += Double.parseDouble(fields[2]);
+                    s.seconds += Double.parseDouble(fields[3]);
+                    s.bytesSquared += Double.parseDouble(fields[4]);
+                    s.bytesSeconds += Double.parseDouble(fields[5]);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("malformed runtime history " + file + ": " + line, ex);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return history;
+    }
+
+    /**
+     * Writes the history, replacing the file. Lines reading archive members
+     * are recorded first.
+     */
+    public synchronized void write(FileSystem fs, Path file) throws IOException {
+        addArchiveLines();
+        Writer out = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), "UTF-8"));
+        try {
+            for( Entry<String, Stats> entry : stats.entrySet() ) {
+                Stats s = entry.getValue();
+                out.write(entry.getKey() + SEP + s.lines + SEP + s.bytes + SEP + s.seconds
+                        + SEP + s.bytesSquared + SEP + s.bytesSeconds + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Merges the files written by the map tasks of a job into a history
+     * file and deletes them. The history file is replaced, so concurrent
+     * jobs merging into the same file may lose each other's lines.
+     *
+     * @param fs filesystem of the output directory and the history
+     * @param dir output directory of the job
+     * @param file history file
+     * @return number of merged files
+     */
+    public static int merge(FileSystem fs, Path dir, Path file) throws IOException {
+        RuntimeHistory history = read(fs, file);
+        int count = 0;
+        for( FileStatus status : fs.listStatus(dir) ) {
+            if( !status.getPath().getName().startsWith(PREFIX) ) continue;
+            history.add(read(fs, status.getPath()));
+            count++;
+        }
+        if( count == 0 ) return 0;
+        Path tmp = file.suffix(".tmp");
+        history.write(fs, tmp);
+        fs.delete(file, false);
+        if( !fs.rename(tmp, file) ) {
+            throw new IOException("could not rename " + tmp + " to " + file);
+        }
+        for( FileStatus status : fs.listStatus(dir) ) {
+            if( status.getPath().getName().startsWith(PREFIX) ) {
+                fs.delete(status.getPath(), false);
+            }
+        }
+        LOG.info("Merged runtimes of " + count + " tasks into " + file);
+        return count;
+    }
+
+}
@@ -0,0 +1,171 @@
+package eu.scape_project.pt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Captures output in memory up to a threshold and spills it to a
+ * temporary local file beyond.
+ *
+ * The content stays readable after the stream has been closed,
+ * {@link #delete()} frees it.
+ */
+public class SpillingOutputStream extends OutputStream {
+
+    private static Log LOG = LogFactory.getLog(SpillingOutputStream.class);
+
+    /**
+     * Default number of bytes kept in memory.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+    /**
+     * In-memory buffer readable without copying.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    private final int threshold;
+    private final File tmpDir;
+
+    private Buffer memory = new Buffer();
+    private File file;
+    private OutputStream fileOut;
+    private long size = 0;
+
+    /**
+     * @param threshold number of bytes to keep in memory
+     * @param tmpDir directory for the spill file, null for the default
+     *        temporary directory
+     */
+    public SpillingOutputStream(int threshold, File tmpDir) {
+        this.threshold = threshold;
+        this.tmpDir = tmpDir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if( file == null && memory.size() + len > threshold ) {
+            spill();
+        }
+        if( file == null ) {
+            memory.write(b, off, len);
+        } else {
+            fileOut.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Moves the in-memory content to a temporary file.
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile("tomar-output", ".tmp", tmpDir);
+        LOG.debug("spilling output to " + file);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if( fileOut != null ) fileOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Gets the number of bytes written.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Whether the content has been spilled to a file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Gets a stream reading the content.
+     */
+    public InputStream getInputStream() throws IOException {
+        if( file == null ) {
+            return memory.getInputStream();
+        }
+        fileOut.flush();
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Gets the beginning of the content as String.
+     *
+     * @param maxBytes maximum number of bytes to read
+     */
+    public String head(int maxBytes) throws IOException {
+        byte[] bytes = new byte[(int)Math.min(size, maxBytes)];
+        InputStream in = getInputStream();
+        try {
+            int read = 0;
+            int n;
+            while( read < bytes.length
+                    && (n = in.read(bytes, read, bytes.length - read)) != -1 ) {
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes);
+    }
+
+    /**
+     * Gets the whole content as String.
+     */
+    @Override
+    public String toString() {
+        try {
+            return head(Integer.MAX_VALUE);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Closes the stream and deletes a spill file.
+     */
+    public void delete() {
+        if( fileOut != null ) {
+            try {
+                fileOut.close();
+            } catch (IOException ex) {
+                LOG.debug("closing " + file + " failed", ex);
+            }
+            if( !file.delete() ) LOG.warn("could not delete " + file);
+        }
+        memory = null;
+    }
+
+}
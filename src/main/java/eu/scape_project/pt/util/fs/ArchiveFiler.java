@@ -0,0 +1,262 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Handles a member of a TAR or ZIP archive referenced like
+ * <code>tar:hdfs:///bundle.tar!/path/a.tif</code>. Only the member is
+ * streamed, the archive is neither unpacked nor copied.
+ *
+ * Archives are read sequentially. After a member has been read the
+ * archive's stream is kept open, so members requested in the order of the
+ * archive are read by a single pass. Members are read-only.
+ */
+public class ArchiveFiler extends Filer {
+
+    private static Log LOG = LogFactory.getLog(ArchiveFiler.class);
+
+    /**
+     * Separates the archive from the member path.
+     */
+    public static final String SEPARATOR = "!/";
+
+    /**
+     * Maximum number of archive streams kept open.
+     */
+    private static final int MAX_OPEN_READERS = 4;
+
+    /**
+     * Open readers positioned after the last member read, by archive.
+     */
+    private static final Map<String, ArchiveReader> READERS = 
+        new LinkedHashMap<String, ArchiveReader>(16, 0.75f, true);
+
+    static class Factory implements FilerFactory {
+        private final String type;
+
+        Factory(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public Filer create(URI uri, Configuration conf) throws IOException {
+            return new ArchiveFiler(type, uri, conf);
+        }
+    }
+
+    private final String type;
+
+    private final String strArchive;
+
+    private final Filer archive;
+
+    private final String member;
+
+    ArchiveFiler(String type, URI uri, Configuration conf) throws IOException {
+        String strUri = uri.toString();
+        this.type = type;
+        this.strArchive = getArchiveRef(strUri);
+        if( strArchive == null ) 
+            throw new IOException("no archive member in " + uri);
+        this.archive = Filer.create(strArchive, conf);
+        this.member = strUri.substring(type.length() + 1 
+                + strArchive.length() + SEPARATOR.length());
+    }
+
+    /**
+     * Gets the archive of an archive member reference.
+     *
+     * @param strRef file reference
+     * @return archive reference or null if strRef is not an archive member
+     */
+    public static String getArchiveRef(String strRef) {
+        int colon = strRef.indexOf(':');
+        if( colon == -1 ) return null;
+        String scheme = strRef.substring(0, colon);
+        if( !scheme.equals("tar") && !scheme.equals("zip") ) return null;
+        int sep = strRef.indexOf(SEPARATOR, colon);
+        if( sep == -1 ) return null;
+        return strRef.substring(colon + 1, sep);
+    }
+
+    /**
+     * Gets the reference of the member's archive.
+     */
+    public String getArchiveRef() {
+        return strArchive;
+    }
+
+    /**
+     * Gets the number of bytes of the member's archive.
+     */
+    public long getArchiveLength() throws IOException {
+        return archive.getLength();
+    }
+
+    /**
+     * Closes all archive streams kept open.
+     */
+    public static void releaseReaders() {
+        synchronized (READERS) {
+            for( ArchiveReader reader : READERS.values() ) {
+                closeQuietly(reader);
+            }
+            READERS.clear();
+        }
+    }
+
+    @Override
+    public void setWorkingDir(String strDir) throws IOException {
+        this.dir = strDir;
+        archive.setWorkingDir(strDir);
+    }
+
+    /**
+     * Extracts the member into the working directory.
+     */
+    @Override
+    public void localize() throws IOException {
+        File file = new File(getAbsoluteFileRef());
+        LOG.debug("localize " + member + " of " + strArchive + " to " + file);
+        File parent = file.getParentFile();
+        if( !parent.mkdirs() && !parent.isDirectory() ) 
+            throw new IOException("Could not create local directory: " + parent);
+        InputStream in = getInputStream();
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while( (n = in.read(buffer)) != -1 ) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void delocalize() throws IOException {
+        throw new IOException("archive members are read-only: " + member);
+    }
+
+    /**
+     * Gets the member's path in a directory named after the archive. 
+     * Members of an archive accessed in place are extracted to the working
+     * directory, not next to the archive.
+     */
+    @Override
+    public String getAbsoluteFileRef() {
+        if( archive.isLocal() ) {
+            return new File(dir, getRelativeFileRef()).getAbsolutePath();
+        }
+        return archive.getAbsoluteFileRef() + ".members" + File.separator 
+            + member.replace('/', File.separatorChar);
+    }
+
+    @Override
+    public String getRelativeFileRef() {
+        String strArchive = archive.getRelativeFileRef();
+        if( archive.isLocal() ) {
+            // the archive's absolute path below the working directory
+            while( strArchive.startsWith(File.separator) ) {
+                strArchive = strArchive.substring(1);
+            }
+        }
+        return strArchive + ".members" + File.separator 
+            + member.replace('/', File.separatorChar);
+    }
+
+    /**
+     * Gets the member's stream. Closing it keeps the archive open for 
+     * reading following members.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        final ArchiveReader reader = find();
+        return new FilterInputStream(reader.getMember()) {
+            private boolean closed = false;
+            @Override
+            public void close() {
+                if( closed ) return;
+                closed = true;
+                keep(reader);
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("archive members are read-only: " + member);
+    }
+
+    /**
+     * Gets a reader positioned at the member, continuing a kept reader of
+     * the archive if the member follows its position.
+     */
+    private ArchiveReader find() throws IOException {
+        ArchiveReader reader;
+        synchronized (READERS) {
+            reader = READERS.remove(strArchive);
+        }
+        if( reader != null ) {
+            if( seek(reader) ) return reader;
+            LOG.debug(member + " precedes the position in " + strArchive + ", reopening it");
+            closeQuietly(reader);
+        }
+        reader = ArchiveReader.open(type, archive.getInputStream());
+        if( seek(reader) ) return reader;
+        closeQuietly(reader);
+        throw new FileNotFoundException(member + " not found in " + strArchive);
+    }
+
+    private boolean seek(ArchiveReader reader) throws IOException {
+        String name;
+        while( (name = reader.next()) != null ) {
+            if( name.equals(member) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Keeps a reader for following members, closing the least recently 
+     * used ones beyond {@link #MAX_OPEN_READERS}.
+     */
+    private void keep(ArchiveReader reader) {
+        synchronized (READERS) {
+            ArchiveReader old = READERS.put(strArchive, reader);
+            if( old != null ) closeQuietly(old);
+            Iterator<ArchiveReader> it = READERS.values().iterator();
+            while( READERS.size() > MAX_OPEN_READERS ) {
+                closeQuietly(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(ArchiveReader reader) {
+        try {
+            reader.close();
+        } catch (IOException ex) {
+            LOG.debug("closing archive failed", ex);
+        }
+    }
+
+}
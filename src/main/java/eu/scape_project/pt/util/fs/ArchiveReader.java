@@ -0,0 +1,314 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the members of a TAR or ZIP archive sequentially from a stream,
+ * without seeking and without unpacking the archive.
+ */
+abstract class ArchiveReader {
+
+    protected final InputStream in;
+
+    private InputStream member;
+
+    ArchiveReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Creates the reader of an archive type.
+     *
+     * @param type "tar" or "zip"
+     * @param in stream of the archive
+     */
+    static ArchiveReader open(String type, InputStream in) throws IOException {
+        if( "tar".equals(type) ) return new Tar(in);
+        if( "zip".equals(type) ) return new Zip(in);
+        throw new IOException("unknown archive type " + type);
+    }
+
+    /**
+     * Skips the rest of the current member and moves to the next regular
+     * file of the archive.
+     *
+     * @return the path of the member or null at the end of the archive
+     */
+    String next() throws IOException {
+        if( member != null ) {
+            skipFully(member, Long.MAX_VALUE);
+            member = null;
+        }
+        String name = nextEntry();
+        if( name != null ) member = entryStream();
+        return name;
+    }
+
+    /**
+     * Gets the stream of the current member, closing it does not close the
+     * archive.
+     */
+    InputStream getMember() {
+        return member;
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+    protected abstract String nextEntry() throws IOException;
+
+    protected abstract InputStream entryStream();
+
+    /**
+     * Skips up to n bytes, by seeking if the stream supports it.
+     */
+    static void skipFully(InputStream in, long n) throws IOException {
+        byte[] buffer = null;
+        while( n > 0 ) {
+            long skipped = in.skip(n);
+            if( skipped <= 0 ) {
+                if( buffer == null ) buffer = new byte[8192];
+                int read = in.read(buffer, 0, (int)Math.min(n, buffer.length));
+                if( read == -1 ) return;
+                skipped = read;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Reads a TAR archive (ustar, including GNU long names and pax paths).
+     */
+    static class Tar extends ArchiveReader {
+
+        private static final int BLOCK = 512;
+
+        private final byte[] header = new byte[BLOCK];
+
+        private long remaining;
+
+        private long padding;
+
+        Tar(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected String nextEntry() throws IOException {
+            skipFully(in, remaining + padding);
+            remaining = padding = 0;
+            String longName = null;
+            while( true ) {
+                if( !readHeader() ) return null;
+                long size = parseSize();
+                char type = (char)header[156];
+                String name = longName != null ? longName : parseName();
+                longName = null;
+                if( type == 'L' ) {
+                    longName = trim(readData(size));
+                } else if( type == 'x' ) {
+                    longName = paxPath(readData(size));
+                } else if( type == '0' || type == '\0' || type == '7' ) {
+                    remaining = size;
+                    padding = pad(size);
+                    return name;
+                } else {
+                    skipFully(in, size + pad(size));
+                }
+            }
+        }
+
+        @Override
+        protected InputStream entryStream() {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    if( remaining <= 0 ) return -1;
+                    int b = in.read();
+                    if( b != -1 ) remaining--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if( remaining <= 0 ) return -1;
+                    int n = in.read(b, off, (int)Math.min(len, remaining));
+                    if( n > 0 ) remaining -= n;
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = in.skip(Math.min(n, remaining));
+                    if( skipped > 0 ) remaining -= skipped;
+                    return skipped;
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return (int)Math.min(in.available(), remaining);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        /**
+         * Reads the next header block.
+         *
+         * @return false at the end of the archive
+         */
+        private boolean readHeader() throws IOException {
+            int off = 0;
+            while( off < BLOCK ) {
+                int n = in.read(header, off, BLOCK - off);
+                if( n == -1 ) {
+                    if( off == 0 ) return false;
+                    throw new EOFException("truncated tar header");
+                }
+                off += n;
+            }
+            for( byte b : header ) {
+                if( b != 0 ) return true;
+            }
+            return false;
+        }
+
+        private byte[] readData(long size) throws IOException {
+            if( size > Integer.MAX_VALUE ) throw new IOException("tar header too large");
+            byte[] data = new byte[(int)size];
+            int off = 0;
+            while( off < data.length ) {
+                int n = in.read(data, off, data.length - off);
+                if( n == -1 ) throw new EOFException("truncated tar entry");
+                off += n;
+            }
+            skipFully(in, pad(size));
+            return data;
+        }
+
+        private String parseName() throws IOException {
+            String name = string(0, 100);
+            if( string(257, 5).equals("ustar") ) {
+                String prefix = string(345, 155);
+                if( !prefix.isEmpty() ) name = prefix + "/" + name;
+            }
+            return name;
+        }
+
+        private long parseSize() {
+            if( (header[124] & 0x80) != 0 ) {
+                // base-256 encoding of large sizes
+                long size = 0;
+                for( int i = 125; i < 136; i++ ) {
+                    size = (size << 8) | (header[i] & 0xff);
+                }
+                return size;
+            }
+            long size = 0;
+            for( int i = 124; i < 136; i++ ) {
+                byte b = header[i];
+                if( b >= '0' && b <= '7' ) {
+                    size = size * 8 + (b - '0');
+                } else if( size > 0 || (b != ' ' && b != 0) ) {
+                    break;
+                }
+            }
+            return size;
+        }
+
+        private String string(int off, int len) throws IOException {
+            int end = off;
+            while( end < off + len && header[end] != 0 ) end++;
+            return new String(header, off, end - off, "UTF-8");
+        }
+
+        /**
+         * Gets the path record of a pax extended header, if any. Record 
+         * lengths count bytes, so only the value is decoded.
+         */
+        static String paxPath(byte[] data) throws IOException {
+            byte[] key = "path=".getBytes("UTF-8");
+            int pos = 0;
+            while( pos < data.length ) {
+                int space = pos;
+                while( space < data.length && data[space] != ' ' ) space++;
+                if( space == data.length ) break;
+                int len;
+                try {
+                    len = Integer.parseInt(new String(data, pos, space - pos, "US-ASCII"));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("malformed pax record length", ex);
+                }
+                // a record is "<len> <key>=<value>\n"
+                int end = pos + len - 1;
+                if( len <= 0 || end < space + 1 || end >= data.length || data[end] != '\n' ) 
+                    throw new IOException("malformed pax record");
+                if( startsWith(data, space + 1, end, key) ) {
+                    int value = space + 1 + key.length;
+                    return new String(data, value, end - value, "UTF-8");
+                }
+                pos += len;
+            }
+            return null;
+        }
+
+        private static boolean startsWith(byte[] data, int off, int end, byte[] prefix) {
+            if( end - off < prefix.length ) return false;
+            for( int i = 0; i < prefix.length; i++ ) {
+                if( data[off + i] != prefix[i] ) return false;
+            }
+            return true;
+        }
+
+        private static String trim(byte[] data) throws IOException {
+            int end = 0;
+            while( end < data.length && data[end] != 0 ) end++;
+            return new String(data, 0, end, "UTF-8");
+        }
+
+        private static long pad(long size) {
+            return (BLOCK - size % BLOCK) % BLOCK;
+        }
+    }
+
+    /**
+     * Reads a ZIP archive by its local file headers.
+     */
+    static class Zip extends ArchiveReader {
+
+        private final ZipInputStream zip;
+
+        Zip(InputStream in) {
+            super(new ZipInputStream(in));
+            this.zip = (ZipInputStream)this.in;
+        }
+
+        @Override
+        protected String nextEntry() throws IOException {
+            ZipEntry entry;
+            while( (entry = zip.getNextEntry()) != null ) {
+                if( !entry.isDirectory() ) return entry.getName();
+            }
+            return null;
+        }
+
+        @Override
+        protected InputStream entryStream() {
+            return new FilterInputStream(zip) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Localizes a file as a named pipe which is fed with the remote file's
+ * content while a tool reads it, so the tool starts before the transfer
+ * has finished and the file takes no local disk space.
+ *
+ * Only suitable for tools reading their input once and sequentially.
+ */
+public class FifoStream {
+
+    private static Log LOG = LogFactory.getLog(FifoStream.class);
+
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tomar-fifo-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    /**
+     * Milliseconds to wait for the writer before releasing it again.
+     */
+    private static final long RELEASE_INTERVAL = 100;
+
+    private final File fifo;
+
+    private final Future<Void> writer;
+
+    private boolean closed = false;
+
+    private FifoStream(File fifo, Future<Void> writer) {
+        this.fifo = fifo;
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a named pipe at the filer's absolute local file reference and
+     * starts feeding it with the filer's content.
+     *
+     * @throws IOException if the named pipe cannot be created, eg. because
+     *         the platform has no mkfifo
+     */
+    public static FifoStream create(final Filer filer) throws IOException {
+        final File fifo = new File(filer.getAbsoluteFileRef());
+        File parent = fifo.getParentFile();
+        if( !parent.mkdirs() && !parent.isDirectory() )
+            throw new IOException("Could not create local directory: " + parent);
+        if( fifo.exists() && !fifo.delete() )
+            throw new IOException("Could not replace " + fifo);
+        mkfifo(fifo);
+        LOG.debug("streaming into " + fifo);
+
+        Future<Void> writer = WRITERS.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                // blocks until the tool opens the pipe
+                OutputStream out = new FileOutputStream(fifo);
+                try {
+                    InputStream in = filer.getInputStream();
+                    try {
+                        feed(in, out);
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    closeQuietly(out);
+                }
+                return null;
+            }
+        });
+        return new FifoStream(fifo, writer);
+    }
+
+    /**
+     * Copies in to out. A failing write means the tool has stopped reading,
+     * which is up to the tool, whereas a failing read is an error.
+     */
+    private static void feed(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while( (n = in.read(buffer)) != -1 ) {
+            try {
+                out.write(buffer, 0, n);
+            } catch (IOException ex) {
+                LOG.debug("reader of named pipe has stopped reading", ex);
+                return;
+            }
+        }
+    }
+
+    private static void mkfifo(File fifo) throws IOException {
+        Process proc = new ProcessBuilder("mkfifo", fifo.getAbsolutePath())
+            .redirectErrorStream(true).start();
+        try {
+            if( proc.waitFor() != 0 )
+                throw new IOException("mkfifo " + fifo + " failed");
+        } catch (InterruptedException ex) {
+            proc.destroy();
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Waits for the content to be streamed, releases a writer still waiting
+     * for a reader and removes the named pipe.
+     *
+     * @throws IOException if reading the remote file has failed
+     */
+    public void close() throws IOException {
+        if( closed ) return;
+        closed = true;
+        try {
+            while( true ) {
+                if( !writer.isDone() ) {
+                    // the tool has not opened the pipe or has stopped reading, 
+                    // opening it read-write does not block and releases the writer
+                    closeQuietly(new RandomAccessFile(fifo, "rw"));
+                }
+                try {
+                    writer.get(RELEASE_INTERVAL, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    // the writer had not opened the pipe yet and is waiting
+                    // for a reader now
+                }
+            }
+        } catch (InterruptedException ex) {
+            writer.cancel(true);
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("streaming into " + fifo + " failed", ex.getCause());
+        } finally {
+            if( !fifo.delete() ) LOG.debug("could not delete " + fifo);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            LOG.debug("closing failed", ex);
+        }
+    }
+
+}
@@ -1,10 +1,17 @@
 package eu.scape_project.pt.util.fs;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+
+import eu.scape_project.pt.util.PropertyNames;
 
 /**
  * Implementing classes of this interface handle the transportation of files and
@@ -18,10 +25,51 @@ public abstract class Filer {
 
     protected String dir = "";
 
+    /**
+     * Whether the file is an output file.
+     */
+    protected boolean output = false;
+
+    /**
+     * Factories by URI scheme.
+     */
+    private static final ConcurrentMap<String, FilerFactory> FACTORIES = 
+        new ConcurrentHashMap<String, FilerFactory>();
+    static {
+        FACTORIES.put("hdfs", new HDFSFiler.Factory());
+        FACTORIES.put("file", new LocalFiler.Factory());
+        FACTORIES.put("tar", new ArchiveFiler.Factory("tar"));
+        FACTORIES.put("zip", new ArchiveFiler.Factory("zip"));
+    }
+
+    /**
+     * Registers the factory creating the Filers of a URI scheme, replacing
+     * the one registered before.
+     */
+    public static void register(String scheme, FilerFactory factory) {
+        FACTORIES.put(scheme, factory);
+    }
+
+    /**
+     * Used if no Configuration is given.
+     */
+    private static Configuration defaultConf;
+
     /**
      * Abstract factory method to create appropriate file for given uri
      */
     public static Filer create(String strUri) throws IOException{
+        return create(strUri, getDefaultConf());
+    }
+
+    /**
+     * Creates the appropriate Filer for given uri by the factory of its 
+     * scheme.
+     *
+     * @param strUri file reference
+     * @param conf configuration of the task
+     */
+    public static Filer create(String strUri, Configuration conf) throws IOException{
         URI uri = null;
         try {
             uri = new URI(strUri);
@@ -29,12 +77,38 @@ public abstract class Filer {
             throw new IOException(e);
         }
         String scheme = uri.getScheme();
-        if( scheme.equals("hdfs")) {
-            return new HDFSFiler(uri);
+        FilerFactory factory = scheme == null ? null : getFactory(scheme, conf);
+        if( factory != null ) {
+            return factory.create(uri, conf);
         }
         throw new IOException("no appropriate filer for URI " + strUri + " found");
     }
 
+    /**
+     * Gets the registered factory of a scheme or else creates and registers
+     * the one configured by {@link PropertyNames#FILER}.
+     */
+    private static FilerFactory getFactory(String scheme, Configuration conf) 
+            throws IOException {
+        FilerFactory factory = FACTORIES.get(scheme);
+        if( factory != null ) return factory;
+        String strClass = conf.get(PropertyNames.FILER + "." + scheme);
+        if( strClass == null ) return null;
+        try {
+            factory = Class.forName(strClass, true, conf.getClassLoader())
+                .asSubclass(FilerFactory.class).newInstance();
+        } catch (Exception ex) {
+            throw new IOException("cannot create filer factory " + strClass, ex);
+        }
+        FilerFactory other = FACTORIES.putIfAbsent(scheme, factory);
+        return other != null ? other : factory;
+    }
+
+    private static synchronized Configuration getDefaultConf() {
+        if( defaultConf == null ) defaultConf = new Configuration();
+        return defaultConf;
+    }
+
     public String getTmpDir() {
         return System.getProperty("java.io.tmpdir") 
                 + System.getProperty("file.separator");
@@ -67,6 +141,40 @@ public abstract class Filer {
      */
     public abstract String getRelativeFileRef();
 
+    /**
+     * Checks whether the filer's file is accessed in place instead of
+     * being copied, so its local file reference is the file itself.
+     */
+    public boolean isLocal() {
+        return false;
+    }
+
+    /**
+     * Marks the file as an output file which the tool may write, so its 
+     * local copy must not be shared with others.
+     */
+    public void setOutput(boolean output) {
+        this.output = output;
+    }
+
+    /**
+     * Gets the number of bytes of the filer's local file, the files of a 
+     * directory counted recursively.
+     */
+    public long getLength() throws IOException {
+        return getLength(new File(getAbsoluteFileRef()));
+    }
+
+    private static long getLength(File file) {
+        File[] files = file.listFiles();
+        if( files == null ) return file.length();
+        long length = 0;
+        for( File f : files ) {
+            length += getLength(f);
+        }
+        return length;
+    }
+
     /**
      * Gets the input stream of a file.
      */
@@ -0,0 +1,22 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Creates the Filers of a URI scheme. A factory is shared by all Filers of
+ * its scheme, so it may keep expensive objects like FileSystems for reuse.
+ */
+public interface FilerFactory {
+
+    /**
+     * Creates a Filer for a URI of the factory's scheme.
+     *
+     * @param uri file reference
+     * @param conf configuration of the task
+     */
+    Filer create(URI uri, Configuration conf) throws IOException;
+
+}
@@ -1,10 +1,16 @@
 package eu.scape_project.pt.util.fs;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,27 +42,56 @@ public class HDFSFiler extends Filer {
      */
     private final Path file;
 
-    HDFSFiler(URI uri) throws IOException {
+    /**
+     * Creates HDFSFilers sharing one FileSystem per authority.
+     */
+    static class Factory implements FilerFactory {
+        private final ConcurrentMap<String, FileSystem> fileSystems = 
+            new ConcurrentHashMap<String, FileSystem>();
+
+        @Override
+        public Filer create(URI uri, Configuration conf) throws IOException {
+            String authority = uri.getScheme() + "://" + uri.getAuthority();
+            FileSystem fs = fileSystems.get(authority);
+            if( fs == null ) {
+                fs = new Path(uri).getFileSystem(conf);
+                FileSystem other = fileSystems.putIfAbsent(authority, fs);
+                if( other != null ) fs = other;
+            }
+            return new HDFSFiler(uri, fs);
+        }
+    }
+
+    HDFSFiler(URI uri, FileSystem hdfs) {
         this.file = new Path(uri);
-        hdfs = file.getFileSystem(new Configuration());
+        this.hdfs = hdfs;
     }
     
     /**
      * Copies a file or directory from the local filesystem to a remote one.
+     * The files of a directory are copied in parallel.
      */
     private void depositDirectoryOrFile(String strSrc, String strDest) throws IOException {
         File source = new File( strSrc );
         if(source.isDirectory()) {
-            depositDirectory(strSrc, strDest);
+            List<Callable<Void>> transfers = new ArrayList<Callable<Void>>();
+            depositDirectory(strSrc, strDest, transfers);
+            try {
+                TransferExecutor.runAll(transfers);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
         } else {
             depositFile(strSrc, strDest);
         }
     }
     
     /**
-     * Copies a directory from the local filesystem to a remote one.
+     * Adds the copies of a directory's files from the local filesystem 
+     * to a remote one to transfers.
      */
-    private void depositDirectory(String strSrc, String strDest) throws IOException {
+    private void depositDirectory(String strSrc, String strDest, 
+            List<Callable<Void>> transfers) throws IOException {
         // Get output directory name from strSrc
         File localDir = new File( strSrc );
         
@@ -67,7 +102,19 @@ public class HDFSFiler extends Filer {
         LOG.debug("Local directory is: " + localDir );
         
         for(File localFile : localDir.listFiles()) {
-            depositDirectoryOrFile(localFile.getCanonicalPath(), strDest + File.separator + localFile.getName());
+            final String strFileSrc = localFile.getCanonicalPath();
+            final String strFileDest = strDest + File.separator + localFile.getName();
+            if( localFile.isDirectory() ) {
+                depositDirectory(strFileSrc, strFileDest, transfers);
+            } else {
+                transfers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        depositFile(strFileSrc, strFileDest);
+                        return null;
+                    }
+                });
+            }
         }
     }
 
@@ -86,13 +133,14 @@ public class HDFSFiler extends Filer {
     public void localize() throws IOException {
         File fileRef = new File(getAbsoluteFileRef());
         LOG.debug("localize " + fileRef);
-        if (!new File(fileRef.getParent()).mkdirs()) {
+        File parent = new File(fileRef.getParent());
+        if (!parent.mkdirs() && !parent.isDirectory()) {
             throw new IOException("Could not create local directory: " + fileRef.getParent() );
         }
         Path localfile = new Path( fileRef.toString() );
         if(hdfs.exists(file)) {
+            FileStatus fs = hdfs.getFileStatus(file);
             if( LOG.isDebugEnabled() ) {
-                FileStatus fs = hdfs.getFileStatus(file);
                 if( !fs.isDirectory() ) {
                     BlockLocation[] locations = hdfs.getFileBlockLocations(fs, 0, fs.getLen());
                     for( BlockLocation location : locations ) {
@@ -107,7 +155,13 @@ public class HDFSFiler extends Filer {
                     LOG.debug("file is a directory");
                 }
             }
-            hdfs.copyToLocalFile(file, localfile);
+            LocalizationCache cache = LocalizationCache.getInstance();
+            // an existing output file may be rewritten, it gets a copy of its own
+            if( cache != null && !output && !fs.isDirectory() ) {
+                cache.localize(hdfs, fs, fileRef);
+            } else {
+                hdfs.copyToLocalFile(file, localfile);
+            }
         }
     }
 
@@ -116,6 +170,19 @@ public class HDFSFiler extends Filer {
         this.depositDirectoryOrFile(getAbsoluteFileRef(), file.toString());
     }
 
+    /**
+     * Gets the number of bytes of the remote file or directory, 0 if it
+     * doesn't exist.
+     */
+    @Override
+    public long getLength() throws IOException {
+        try {
+            return hdfs.getContentSummary(file).getLength();
+        } catch (FileNotFoundException ex) {
+            return 0;
+        }
+    }
+
     @Override
     public void setWorkingDir(String strDir ) {
         LOG.debug("setDirectory " + strDir );
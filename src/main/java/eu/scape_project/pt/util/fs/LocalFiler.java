@@ -0,0 +1,102 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Handles files on a filesystem mounted on every node, eg. NFS or Lustre,
+ * referenced by file:// URIs. Tools access such files in place, so they
+ * are neither copied to the working directory nor back.
+ */
+public class LocalFiler extends Filer {
+
+    private static Log LOG = LogFactory.getLog(LocalFiler.class);
+
+    static class Factory implements FilerFactory {
+        @Override
+        public Filer create(URI uri, Configuration conf) throws IOException {
+            return new LocalFiler(uri);
+        }
+    }
+
+    /**
+     * File to handle by this filer
+     */
+    private final File file;
+
+    LocalFiler(URI uri) throws IOException {
+        try {
+            this.file = new File(uri);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("not a local file: " + uri, ex);
+        }
+    }
+
+    /**
+     * Files are accessed in place, so the working directory is not used.
+     */
+    @Override
+    public void setWorkingDir(String strDir) {
+        this.dir = strDir;
+    }
+
+    /**
+     * Only creates the parent directory of the file, eg. for an output file.
+     */
+    @Override
+    public void localize() throws IOException {
+        LOG.debug("localize " + file + " in place");
+        mkParentDirs();
+    }
+
+    @Override
+    public void delocalize() {
+        LOG.debug("delocalize " + file + " in place");
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public String getAbsoluteFileRef() {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Gets the absolute file reference as the file is not relative to the
+     * working directory.
+     */
+    @Override
+    public String getRelativeFileRef() {
+        return getAbsoluteFileRef();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        mkParentDirs();
+        return new FileOutputStream(file);
+    }
+
+    private void mkParentDirs() throws IOException {
+        File parent = file.getParentFile();
+        if( parent != null && !parent.mkdirs() && !parent.isDirectory() ) 
+            throw new IOException("Could not create local directory: " + parent);
+    }
+
+}
@@ -0,0 +1,301 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.HardLink;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Node-wide cache of localized remote files shared by all tasks on a node.
+ *
+ * Entries are keyed by a remote file's path, modification time and length,
+ * so a changed file is fetched again. Localizing a cached file creates a
+ * hard link to the entry, or a copy if the cache directory is on another
+ * filesystem. Least recently used entries are evicted when the cache
+ * exceeds its byte budget. Tasks in different JVMs synchronize by a lock
+ * file in the cache directory.
+ */
+public class LocalizationCache {
+
+    private static Log LOG = LogFactory.getLog(LocalizationCache.class);
+
+    /**
+     * Counts of the cache's activity, reported as job counters.
+     */
+    public enum Counter {
+        HITS, MISSES, EVICTIONS
+    }
+
+    /**
+     * Default byte budget of the cache.
+     */
+    public static final long DEFAULT_SIZE = 10L * 1024 * 1024 * 1024;
+
+    private static final String LOCK_FILE = ".lock";
+
+    /**
+     * Prefix of files being fetched, they are not entries yet.
+     */
+    private static final String FETCH_PREFIX = ".fetch-";
+
+    private static final AtomicLong[] COUNTS = new AtomicLong[Counter.values().length];
+    static {
+        for( int i = 0; i < COUNTS.length; i++ )
+            COUNTS[i] = new AtomicLong();
+    }
+
+    /**
+     * File locks are held by the JVM, so threads synchronize beforehand.
+     */
+    private static final ReentrantLock JVM_LOCK = new ReentrantLock();
+
+    private static volatile LocalizationCache instance;
+
+    private final File dir;
+
+    private final long maxBytes;
+
+    LocalizationCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the cache used by localizing filers.
+     *
+     * @param dir cache directory or null to disable caching
+     * @param maxBytes byte budget of the cache
+     */
+    public static synchronized void configure(String dir, long maxBytes) throws IOException {
+        if( dir == null ) {
+            instance = null;
+            return;
+        }
+        File cacheDir = new File(dir);
+        if( instance != null && instance.dir.equals(cacheDir)
+                && instance.maxBytes == maxBytes )
+            return;
+        if( !cacheDir.mkdirs() && !cacheDir.isDirectory() )
+            throw new IOException("Could not create cache directory " + cacheDir);
+        instance = new LocalizationCache(cacheDir, maxBytes);
+    }
+
+    /**
+     * Gets the configured cache or null if caching is disabled.
+     */
+    public static LocalizationCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets and resets a count of this JVM's caches.
+     */
+    public static long takeCount(Counter counter) {
+        return COUNTS[counter.ordinal()].getAndSet(0);
+    }
+
+    private static void count(Counter counter) {
+        COUNTS[counter.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * Localizes a remote file to target, fetching it only if it is not
+     * in the cache yet.
+     *
+     * @param fs filesystem of the remote file
+     * @param status status of the remote file, must not be a directory
+     * @param target local file to create
+     */
+    public void localize(FileSystem fs, FileStatus status, File target) throws IOException {
+        File entry = new File(dir, key(status));
+        if( target.exists() && !target.delete() )
+            throw new IOException("Could not replace " + target);
+
+        InputStream in = null;
+        FileLock lock = lock();
+        try {
+            if( entry.exists() ) {
+                count(Counter.HITS);
+                entry.setLastModified(System.currentTimeMillis());
+                if( link(entry, target) ) return;
+                // an open entry survives its eviction
+                in = new FileInputStream(entry);
+            }
+        } finally {
+            unlock(lock);
+        }
+        if( in != null ) {
+            copy(in, target);
+            return;
+        }
+
+        count(Counter.MISSES);
+        if( status.getLen() > maxBytes ) {
+            LOG.debug(status.getPath() + " exceeds the cache, not caching it");
+            fs.copyToLocalFile(false, status.getPath(), new Path(target.getAbsolutePath()), true);
+            return;
+        }
+        File fetched = new File(dir, FETCH_PREFIX + UUID.randomUUID());
+        try {
+            // raw, so no checksum file is left next to the entry
+            fs.copyToLocalFile(false, status.getPath(), new Path(fetched.getAbsolutePath()), true);
+            lock = lock();
+            try {
+                if( entry.exists() ) {
+                    // fetched concurrently by another task
+                    entry.setLastModified(System.currentTimeMillis());
+                } else if( !fetched.renameTo(entry) ) {
+                    throw new IOException("Could not add " + entry + " to the cache");
+                }
+                evict(entry);
+                if( !link(entry, target) ) in = new FileInputStream(entry);
+            } finally {
+                unlock(lock);
+            }
+            if( in != null ) copy(in, target);
+        } finally {
+            if( fetched.exists() && !fetched.delete() )
+                LOG.warn("could not delete " + fetched);
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its budget.
+     * Must be called holding the lock.
+     *
+     * @param keep entry not to evict
+     */
+    private void evict(File keep) {
+        File[] entries = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && !file.getName().startsWith(".");
+            }
+        });
+        if( entries == null ) return;
+        long bytes = 0;
+        for( File entry : entries )
+            bytes += entry.length();
+        if( bytes <= maxBytes ) return;
+
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for( File entry : entries ) {
+            if( bytes <= maxBytes ) break;
+            if( entry.equals(keep) ) continue;
+            long length = entry.length();
+            if( entry.delete() ) {
+                LOG.debug("evicted " + entry);
+                count(Counter.EVICTIONS);
+                bytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Tries to hard link target to the entry.
+     */
+    private static boolean link(File entry, File target) {
+        try {
+            HardLink.createHardLink(entry, target);
+            return true;
+        } catch (IOException ex) {
+            LOG.debug("could not link " + target + " to " + entry + ", copying it", ex);
+            return false;
+        }
+    }
+
+    private static void copy(InputStream in, File target) throws IOException {
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while( (n = in.read(buffer)) != -1 )
+                    out.write(buffer, 0, n);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Locks the cache for this thread and against other JVMs.
+     */
+    private FileLock lock() throws IOException {
+        JVM_LOCK.lock();
+        try {
+            RandomAccessFile file = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+            try {
+                return file.getChannel().lock();
+            } catch (IOException ex) {
+                file.close();
+                throw ex;
+            }
+        } catch (IOException ex) {
+            JVM_LOCK.unlock();
+            throw ex;
+        }
+    }
+
+    private static void unlock(FileLock lock) {
+        try {
+            lock.release();
+            lock.channel().close();
+        } catch (IOException ex) {
+            LOG.warn("could not release cache lock", ex);
+        } finally {
+            JVM_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Gets the name of a remote file's entry.
+     */
+    static String key(FileStatus status) {
+        String id = status.getPath().toString() + "|" + status.getModificationTime()
+            + "|" + status.getLen();
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(2 * digest.length);
+            for( byte b : digest ) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+/**
+ * Collects output files into a SequenceFile keyed by their target file
+ * reference instead of writing each of them to its target, which spares
+ * the NameNode lots of small files.
+ *
+ * Next to the container a text index "{container}.index" lists the
+ * position and target of each file, one per line separated by a tab,
+ * so single files can be read without scanning the container.
+ */
+public class OutputContainer implements Closeable {
+
+    private static Log LOG = LogFactory.getLog(OutputContainer.class);
+
+    /**
+     * Prefix of the names of the containers written by the map tasks.
+     */
+    public static final String PREFIX = "container";
+
+    public static final String INDEX_SUFFIX = ".index";
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private final Configuration conf;
+    private final Path file;
+    private final long maxSize;
+    private final SequenceFile.Writer writer;
+    private final Writer index;
+
+    /**
+     * Creates a container and its index.
+     *
+     * @param fs file system to create the container on
+     * @param file path of the container
+     * @param conf configuration, also used to write files too large for
+     *        the container to their target
+     */
+    public OutputContainer(FileSystem fs, Path file, Configuration conf) throws IOException {
+        this.conf = conf;
+        this.file = file;
+        this.maxSize = conf.getLong(PropertyNames.OUTPUT_CONTAINER_MAX_SIZE, DEFAULT_MAX_SIZE);
+        SequenceFile.CompressionType type = SequenceFile.getDefaultCompressionType(conf);
+        if( type == SequenceFile.CompressionType.BLOCK ) {
+            // positions within compressed blocks cannot be seeked to
+            type = SequenceFile.CompressionType.RECORD;
+        }
+        this.writer = SequenceFile.createWriter(fs, conf, file, Text.class, BytesWritable.class, type);
+        this.index = new BufferedWriter(new OutputStreamWriter(
+                    fs.create(indexOf(file)), "UTF-8"));
+        LOG.info("collecting output files in " + file);
+    }
+
+    /**
+     * Adds a local output file, or the files of a local output directory,
+     * under its target file reference. Files larger than
+     * {@link PropertyNames#OUTPUT_CONTAINER_MAX_SIZE} are written to their
+     * target instead.
+     *
+     * @param target file reference the tool's output was meant for
+     * @param local the localized output
+     * @throws FileNotFoundException if the tool has not created the output
+     */
+    public void add(String target, File local) throws IOException {
+        if( local.isDirectory() ) {
+            File[] files = local.listFiles();
+            if( files == null )
+                throw new IOException("Could not list " + local);
+            for( File child : files ) {
+                add(target + "/" + child.getName(), child);
+            }
+            return;
+        }
+        if( !local.isFile() )
+            throw new FileNotFoundException(local.toString());
+        if( local.length() > maxSize ) {
+            LOG.debug("writing " + local + " of " + local.length() + " bytes to " + target);
+            Path path = new Path(target);
+            path.getFileSystem(conf).copyFromLocalFile(new Path(local.getAbsolutePath()), path);
+            return;
+        }
+        append(target, readFully(local));
+    }
+
+    private synchronized void append(String target, byte[] bytes) throws IOException {
+        index.write(writer.getLength() + "\t" + target + "\n");
+        writer.append(new Text(target), new BytesWritable(bytes));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            index.close();
+        }
+        LOG.info("closed " + file);
+    }
+
+    /**
+     * Reads a single file of a container by its index.
+     *
+     * @param fs file system of the container
+     * @param container path of the container
+     * @param target target file reference of the file
+     * @throws FileNotFoundException if the container has no such file
+     */
+    public static byte[] read(FileSystem fs, Path container, String target) throws IOException {
+        long position = -1;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    fs.open(indexOf(container)), "UTF-8"));
+        try {
+            String line;
+            while( (line = reader.readLine()) != null ) {
+                int tab = line.indexOf('\t');
+                // the last file added for a target wins
+                if( line.substring(tab + 1).equals(target) )
+                    position = Long.parseLong(line.substring(0, tab));
+            }
+        } finally {
+            reader.close();
+        }
+        if( position < 0 )
+            throw new FileNotFoundException(target + " not in " + container);
+
+        SequenceFile.Reader records = new SequenceFile.Reader(fs, container, fs.getConf());
+        try {
+            records.seek(position);
+            Text key = new Text();
+            BytesWritable value = new BytesWritable();
+            if( !records.next(key, value) || !key.toString().equals(target) )
+                throw new IOException("index of " + container + " is corrupt");
+            return Arrays.copyOf(value.getBytes(), value.getLength());
+        } finally {
+            records.close();
+        }
+    }
+
+    /**
+     * Writes the files of a container to their targets.
+     *
+     * @return number of files written
+     */
+    public static int unpack(FileSystem fs, Path container, Configuration conf) throws IOException {
+        int count = 0;
+        SequenceFile.Reader records = new SequenceFile.Reader(fs, container, conf);
+        try {
+            Text key = new Text();
+            BytesWritable value = new BytesWritable();
+            while( records.next(key, value) ) {
+                Path target = new Path(key.toString());
+                OutputStream out = target.getFileSystem(conf).create(target, true);
+                try {
+                    out.write(value.getBytes(), 0, value.getLength());
+                } finally {
+                    out.close();
+                }
+                count++;
+            }
+        } finally {
+            records.close();
+        }
+        LOG.info("unpacked " + count + " files of " + container);
+        return count;
+    }
+
+    /**
+     * Writes the files of all containers in a job's output directory to
+     * their targets.
+     *
+     * @return number of files written
+     */
+    public static int unpackAll(FileSystem fs, Path dir, Configuration conf) throws IOException {
+        int count = 0;
+        for( FileStatus status : fs.listStatus(dir) ) {
+            String name = status.getPath().getName();
+            if( name.startsWith(PREFIX) && !name.endsWith(INDEX_SUFFIX) ) {
+                count += unpack(fs, status.getPath(), conf);
+            }
+        }
+        return count;
+    }
+
+    private static Path indexOf(Path container) {
+        return container.suffix(INDEX_SUFFIX);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int off = 0;
+            while( off < bytes.length ) {
+                int n = in.read(bytes, off, bytes.length - off);
+                if( n == -1 ) throw new IOException(file + " has shrunk");
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+}
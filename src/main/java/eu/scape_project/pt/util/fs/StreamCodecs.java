@@ -0,0 +1,85 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+/**
+ * Applies Hadoop CompressionCodecs to the streams of stdin and stdout
+ * redirections, see {@link PropertyNames#CODEC_STDIN} and
+ * {@link PropertyNames#CODEC_STDOUT}.
+ */
+public class StreamCodecs {
+
+    private static Log LOG = LogFactory.getLog(StreamCodecs.class);
+
+    /**
+     * Streams are passed through unchanged.
+     */
+    public static final String NONE = "none";
+
+    /**
+     * The codec is chosen by the extension of the file reference.
+     */
+    public static final String AUTO = "auto";
+
+    private final String stdinCodec;
+    private final String stdoutCodec;
+    private final CompressionCodecFactory factory;
+
+    public StreamCodecs(Configuration conf) {
+        this.stdinCodec = conf.get(PropertyNames.CODEC_STDIN, NONE);
+        this.stdoutCodec = conf.get(PropertyNames.CODEC_STDOUT, NONE);
+        this.factory = NONE.equals(stdinCodec) && NONE.equals(stdoutCodec)
+            ? null : new CompressionCodecFactory(conf);
+    }
+
+    /**
+     * Decompresses the stream of a stdin redirection.
+     *
+     * @param fileRef file reference of the stream
+     * @param in the file's raw stream
+     */
+    public InputStream decompress(String fileRef, InputStream in) throws IOException {
+        CompressionCodec codec = getCodec(stdinCodec, fileRef);
+        if( codec == null ) return in;
+        LOG.debug("decompressing " + fileRef + " with " + codec.getClass().getName());
+        return codec.createInputStream(in);
+    }
+
+    /**
+     * Compresses the stream of a stdout redirection.
+     *
+     * @param fileRef file reference of the stream
+     * @param out the file's raw stream
+     */
+    public OutputStream compress(String fileRef, OutputStream out) throws IOException {
+        CompressionCodec codec = getCodec(stdoutCodec, fileRef);
+        if( codec == null ) return out;
+        LOG.debug("compressing " + fileRef + " with " + codec.getClass().getName());
+        return codec.createOutputStream(out);
+    }
+
+    /**
+     * Gets the codec of a mode, null if the stream is not to be changed.
+     *
+     * @throws IOException if the mode names an unknown codec
+     */
+    private CompressionCodec getCodec(String mode, String fileRef) throws IOException {
+        if( NONE.equals(mode) ) return null;
+        if( AUTO.equals(mode) ) return factory.getCodec(new Path(fileRef));
+        CompressionCodec codec = factory.getCodecByName(mode);
+        if( codec == null ) throw new IOException("unknown compression codec " + mode);
+        return codec;
+    }
+
+}
@@ -0,0 +1,113 @@
+package eu.scape_project.pt.util.fs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs file transfers, ie. localizations and delocalizations, in parallel
+ * on a bounded pool of I/O threads shared by the JVM.
+ *
+ * The calling thread takes part in running its transfers and only waits
+ * for transfers already running, so transfers may start nested transfers
+ * without deadlocking the pool.
+ */
+public final class TransferExecutor {
+
+    private static Log LOG = LogFactory.getLog(TransferExecutor.class);
+
+    /**
+     * Default number of parallel transfers.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    private static volatile int threads = DEFAULT_THREADS;
+
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(
+        DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tomar-transfer-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    static {
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private TransferExecutor() {
+    }
+
+    /**
+     * Sets the maximum number of parallel transfers.
+     */
+    public static synchronized void configure(int maxThreads) {
+        maxThreads = Math.max(maxThreads, 1);
+        if( maxThreads == threads ) return;
+        threads = maxThreads;
+        if( maxThreads > POOL.getMaximumPoolSize() ) {
+            POOL.setMaximumPoolSize(maxThreads);
+            POOL.setCorePoolSize(maxThreads);
+        } else {
+            POOL.setCorePoolSize(maxThreads);
+            POOL.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    /**
+     * Runs transfers and waits for all of them to finish.
+     *
+     * @param transfers transfers to run
+     * @throws IOException the first failure of a transfer
+     */
+    public static void runAll(final List<? extends Callable<?>> transfers)
+            throws IOException, InterruptedException {
+        final int n = transfers.size();
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(n);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Runnable runner = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while( (i = next.getAndIncrement()) < n ) {
+                    try {
+                        if( failure.get() == null ) transfers.get(i).call();
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        int helpers = Math.min(threads, n) - 1;
+        for( int h = 0; h < helpers; h++ ) {
+            POOL.execute(runner);
+        }
+        runner.run();
+        done.await();
+
+        Exception ex = failure.get();
+        if( ex instanceof IOException ) throw (IOException)ex;
+        if( ex instanceof InterruptedException ) throw (InterruptedException)ex;
+        if( ex instanceof RuntimeException ) throw (RuntimeException)ex;
+        if( ex != null ) throw new IOException(ex);
+        if( n > 1 ) LOG.debug("ran " + n + " transfers");
+    }
+
+}
@@ -0,0 +1,153 @@
+package eu.scape_project.pt.util.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input which knows the offset of the next byte in its stream and
+ * allows to look ahead into its buffer.
+ */
+final class PositionedInput {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Offset of buffer[0] in the stream.
+     */
+    private long base;
+
+    private int pos = 0;
+
+    private int limit = 0;
+
+    PositionedInput(InputStream in, long offset) {
+        this.in = in;
+        this.base = offset;
+    }
+
+    /**
+     * Gets the offset of the next byte.
+     */
+    long position() {
+        return base + pos;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the index of the next byte in the buffer.
+     */
+    int pos() {
+        return pos;
+    }
+
+    /**
+     * Makes at least n bytes available in the buffer, unless the stream ends.
+     *
+     * @return number of bytes available in the buffer
+     */
+    int ensure(int n) throws IOException {
+        n = Math.min(n, buffer.length);
+        if( limit - pos >= n ) return limit - pos;
+        if( pos > 0 ) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            base += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        while( limit < n ) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if( read == -1 ) break;
+            limit += read;
+        }
+        return limit - pos;
+    }
+
+    /**
+     * Consumes n bytes available in the buffer.
+     */
+    void consume(int n) {
+        pos += n;
+    }
+
+    int read() throws IOException {
+        if( ensure(1) == 0 ) return -1;
+        return buffer[pos++] & 0xff;
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+        int avail = ensure(1);
+        if( avail == 0 ) return -1;
+        int n = Math.min(avail, len);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Skips n bytes, by the underlying stream's skip if they are not
+     * buffered.
+     *
+     * @return false if the stream ended before
+     */
+    boolean skip(long n) throws IOException {
+        int buffered = (int)Math.min(n, limit - pos);
+        pos += buffered;
+        n -= buffered;
+        while( n > 0 ) {
+            long skipped = in.skip(n);
+            if( skipped <= 0 ) {
+                if( in.read() == -1 ) return false;
+                skipped = 1;
+            }
+            base += skipped;
+            n -= skipped;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a line terminated by LF or CRLF.
+     *
+     * @return the line without its terminator or null at the end
+     */
+    String readLine() throws IOException {
+        StringBuilder line = null;
+        while( ensure(1) > 0 ) {
+            int start = pos;
+            while( pos < limit && buffer[pos] != '\n' ) pos++;
+            int end = pos;
+            boolean complete = pos < limit;
+            if( complete ) pos++;
+            if( line == null ) line = new StringBuilder();
+            line.append(new String(buffer, start, end - start, "ISO-8859-1"));
+            if( complete ) {
+                int len = line.length();
+                if( len > 0 && line.charAt(len - 1) == '\r' ) line.setLength(len - 1);
+                return line.toString();
+            }
+        }
+        return line == null ? null : line.toString();
+    }
+
+    void readFully(byte[] b) throws IOException {
+        int off = 0;
+        while( off < b.length ) {
+            int n = read(b, off, b.length - off);
+            if( n == -1 ) throw new EOFException();
+            off += n;
+        }
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,456 @@
+package eu.scape_project.pt.util.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the records of a WARC or ARC file, plain or compressed record by
+ * record as usual for .warc.gz and .arc.gz files.
+ *
+ * A reader may be restricted to a range of the file. It then reads the
+ * records starting within the range, so a file can be split at arbitrary
+ * offsets and each record is read by exactly one reader. A reader starting
+ * within the file looks for the next record by its first line, or the
+ * next gzip member starting with a record. In a plain file a payload line
+ * may look like the first line of a record, so only ranges of compressed
+ * files are created automatically.
+ *
+ * Records are referenced by control lines as <code>warc:{file}</code> or
+ * <code>arc:{file}</code>, a range is appended as
+ * <code>#{start}-{end}</code>.
+ */
+public class WebArchiveReader {
+
+    private static Log LOG = LogFactory.getLog(WebArchiveReader.class);
+
+    private static final Pattern WARC_VERSION = Pattern.compile("WARC/\\d+\\.\\d+");
+
+    /**
+     * URL IP-address archive-date content-type length
+     */
+    private static final Pattern ARC_HEADER = Pattern.compile("\\S+ \\S+ \\d{14} \\S+ \\d+");
+
+    private static final int MAX_HEADER_LINE = 8192;
+
+    private static final String[] SCHEMES = {"warc:", "arc:"};
+
+    private final PositionedInput raw;
+
+    private final boolean compressed;
+
+    private final long end;
+
+    private final Set<String> types;
+
+    /**
+     * Records of the current gzip member.
+     */
+    private PositionedInput member;
+
+    private long memberOffset;
+
+    private InputStream payload;
+
+    /**
+     * Creates a reader of the records starting in a range of a file.
+     *
+     * @param in stream of the file, positioned at its start
+     * @param compressed whether the records are gzip members
+     * @param start offset where the range starts
+     * @param end offset where the range ends
+     * @param types WARC-Types of the records to read, all if null
+     */
+    public WebArchiveReader(InputStream in, boolean compressed, long start,
+            long end, Set<String> types) throws IOException {
+        this.raw = new PositionedInput(in, 0);
+        this.compressed = compressed;
+        this.end = end;
+        this.types = types;
+        if( start > 0 ) {
+            if( compressed ) {
+                raw.skip(start);
+                syncMember();
+            } else {
+                // the previous byte tells whether a line starts at start
+                raw.skip(start - 1);
+                syncLine();
+            }
+            LOG.debug("first record after " + start + " at " + raw.position());
+        }
+    }
+
+    /**
+     * Checks whether a file reference references the records of a file.
+     */
+    public static boolean isRecordsRef(String strRef) {
+        if( strRef == null ) return false;
+        for( String scheme : SCHEMES ) {
+            if( strRef.startsWith(scheme) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the file of a records reference.
+     */
+    public static String getFileRef(String strRef) {
+        String ref = strRef.substring(strRef.indexOf(':') + 1);
+        int hash = ref.lastIndexOf('#');
+        return hash == -1 ? ref : ref.substring(0, hash);
+    }
+
+    /**
+     * Gets the range of a records reference.
+     *
+     * @return start and end offset or null if the reference has no range
+     */
+    public static long[] getRange(String strRef) {
+        int hash = strRef.lastIndexOf('#');
+        if( hash == -1 ) return null;
+        String range = strRef.substring(hash + 1);
+        int dash = range.indexOf('-');
+        if( dash == -1 ) return null;
+        try {
+            return new long[] {
+                Long.parseLong(range.substring(0, dash)),
+                Long.parseLong(range.substring(dash + 1))};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets a reference to the records of a range of the referenced file.
+     */
+    public static String getRangeRef(String strRef, long start, long end) {
+        int hash = strRef.lastIndexOf('#');
+        String ref = hash != -1 && getRange(strRef) != null
+            ? strRef.substring(0, hash) : strRef;
+        return ref + "#" + start + "-" + end;
+    }
+
+    /**
+     * Checks whether the records of a file are compressed, by its name.
+     */
+    public static boolean isCompressed(String strFileRef) {
+        return strFileRef.toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Reads the next record. The payload of the previous one is skipped.
+     *
+     * @return the next record or null after the last one of the range
+     */
+    public WebArchiveRecord next() throws IOException {
+        while( true ) {
+            if( payload != null ) {
+                skipFully(payload);
+                payload = null;
+            }
+            WebArchiveRecord record;
+            if( compressed ) {
+                if( member == null && !nextMember() ) return null;
+                record = readRecord(member, memberOffset);
+                if( record == null ) {
+                    // consumes the member's trailer
+                    member.skip(Long.MAX_VALUE);
+                    member = null;
+                    continue;
+                }
+            } else {
+                if( raw.position() >= end ) return null;
+                record = readRecord(raw, -1);
+                if( record == null ) return null;
+                if( record.getOffset() >= end ) return null;
+            }
+            payload = record.getPayload();
+            if( types == null || types.contains(record.getType()) ) return record;
+        }
+    }
+
+    public void close() throws IOException {
+        raw.close();
+    }
+
+    /**
+     * Starts reading the next gzip member.
+     *
+     * @return false at the end of the range
+     */
+    private boolean nextMember() throws IOException {
+        if( raw.position() >= end || raw.ensure(1) == 0 ) return false;
+        memberOffset = raw.position();
+        skipGzipHeader();
+        member = new PositionedInput(new MemberStream(), 0);
+        return true;
+    }
+
+    /**
+     * Reads a record header.
+     *
+     * @param offset offset of the record, the position of in if negative
+     * @return the record or null at the end of in
+     */
+    private static WebArchiveRecord readRecord(final PositionedInput in, long offset)
+            throws IOException {
+        String line;
+        long start;
+        do {
+            start = in.position();
+            line = in.readLine();
+            if( line == null ) return null;
+        } while( line.isEmpty() );
+        if( offset < 0 ) offset = start;
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String id, type;
+        long length;
+        if( WARC_VERSION.matcher(line).matches() ) {
+            while( (line = in.readLine()) != null && !line.isEmpty() ) {
+                int colon = line.indexOf(':');
+                if( colon == -1 ) continue;
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+            id = headers.get("warc-record-id");
+            type = headers.get("warc-type");
+            length = parseLength(headers.get("content-length"), start);
+        } else if( ARC_HEADER.matcher(line).matches() ) {
+            String[] fields = line.split(" ");
+            id = fields[0] + " " + fields[2];
+            type = fields[0].startsWith("filedesc:") ? "warcinfo" : "response";
+            length = parseLength(fields[4], start);
+            headers.put("url", fields[0]);
+            headers.put("ip-address", fields[1]);
+            headers.put("archive-date", fields[2]);
+            headers.put("content-type", fields[3]);
+            headers.put("content-length", fields[4]);
+        } else {
+            throw new IOException("no WARC or ARC record at offset " + start);
+        }
+        return new WebArchiveRecord(id, type, offset, length, headers,
+                new PayloadStream(in, length));
+    }
+
+    private static long parseLength(String strLength, long offset) throws IOException {
+        try {
+            return Long.parseLong(strLength.trim());
+        } catch (RuntimeException ex) {
+            throw new IOException("invalid length of record at offset " + offset);
+        }
+    }
+
+    /**
+     * Moves to the start of the next line which looks like a record header.
+     */
+    private void syncLine() throws IOException {
+        while( true ) {
+            int c;
+            while( (c = raw.read()) != -1 && c != '\n' );
+            if( c == -1 ) return;
+            int avail = raw.ensure(MAX_HEADER_LINE);
+            if( looksLikeRecord(raw.buffer(), raw.pos(), avail) ) return;
+        }
+    }
+
+    /**
+     * Moves to the start of the next gzip member which starts with a record.
+     */
+    private void syncMember() throws IOException {
+        int avail;
+        while( (avail = raw.ensure(MAX_HEADER_LINE)) > 0 ) {
+            byte[] buffer = raw.buffer();
+            int pos = raw.pos();
+            if( avail >= 3 && buffer[pos] == (byte)0x1f && buffer[pos + 1] == (byte)0x8b
+                    && buffer[pos + 2] == 8 && startsWithRecord(buffer, pos, avail) ) {
+                return;
+            }
+            raw.consume(1);
+        }
+    }
+
+    /**
+     * Checks whether a gzip member in a buffer starts with a record.
+     */
+    private static boolean startsWithRecord(byte[] buffer, int off, int len) {
+        int header = gzipHeaderLength(buffer, off, len);
+        if( header == -1 ) return false;
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(buffer, off + header, len - header);
+            byte[] head = new byte[MAX_HEADER_LINE];
+            int n = 0;
+            while( n < head.length && !inflater.finished() && !inflater.needsInput() ) {
+                n += inflater.inflate(head, n, head.length - n);
+            }
+            return looksLikeRecord(head, 0, n);
+        } catch (DataFormatException ex) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Checks whether a buffer starts with the first line of a record.
+     */
+    private static boolean looksLikeRecord(byte[] buffer, int off, int len) {
+        int end = off;
+        while( end < off + len && buffer[end] != '\n' ) end++;
+        if( end == off + len ) return false;
+        if( end > off && buffer[end - 1] == '\r' ) end--;
+        String line;
+        try {
+            line = new String(buffer, off, end - off, "ISO-8859-1");
+        } catch (java.io.UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return WARC_VERSION.matcher(line).matches() || ARC_HEADER.matcher(line).matches();
+    }
+
+    /**
+     * Gets the length of a gzip header in a buffer.
+     *
+     * @return the length or -1 if the buffer does not contain a gzip header
+     */
+    private static int gzipHeaderLength(byte[] b, int off, int len) {
+        int end = off + len;
+        if( len < 10 || b[off] != (byte)0x1f || b[off + 1] != (byte)0x8b || b[off + 2] != 8 )
+            return -1;
+        int flags = b[off + 3];
+        int pos = off + 10;
+        if( (flags & 4) != 0 ) {
+            if( pos + 2 > end ) return -1;
+            pos += 2 + ((b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8));
+        }
+        if( (flags & 8) != 0 ) {
+            while( pos < end && b[pos] != 0 ) pos++;
+            pos++;
+        }
+        if( (flags & 16) != 0 ) {
+            while( pos < end && b[pos] != 0 ) pos++;
+            pos++;
+        }
+        if( (flags & 2) != 0 ) pos += 2;
+        return pos <= end ? pos - off : -1;
+    }
+
+    private void skipGzipHeader() throws IOException {
+        int avail = raw.ensure(MAX_HEADER_LINE);
+        int len = gzipHeaderLength(raw.buffer(), raw.pos(), avail);
+        if( len == -1 ) throw new IOException("no gzip member at offset " + raw.position());
+        raw.consume(len);
+    }
+
+    private static void skipFully(InputStream in) throws IOException {
+        byte[] buffer = null;
+        while( true ) {
+            long skipped = in.skip(Long.MAX_VALUE);
+            if( skipped > 0 ) continue;
+            if( buffer == null ) buffer = new byte[8192];
+            if( in.read(buffer) == -1 ) return;
+        }
+    }
+
+    /**
+     * Inflates the current gzip member of the raw input, consuming exactly
+     * the member's bytes including its trailer.
+     */
+    private class MemberStream extends InputStream {
+
+        private final Inflater inflater = new Inflater(true);
+
+        private boolean finished = false;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if( finished ) return -1;
+            if( len == 0 ) return 0;
+            try {
+                while( true ) {
+                    int avail = raw.ensure(1);
+                    if( avail == 0 ) throw new EOFException("truncated gzip member");
+                    inflater.setInput(raw.buffer(), raw.pos(), avail);
+                    int n = inflater.inflate(b, off, len);
+                    raw.consume(avail - inflater.getRemaining());
+                    if( inflater.finished() ) {
+                        finished = true;
+                        inflater.end();
+                        // CRC32 and size
+                        raw.skip(8);
+                        return n > 0 ? n : -1;
+                    }
+                    if( n > 0 ) return n;
+                    if( inflater.needsDictionary() )
+                        throw new IOException("gzip member needs a dictionary");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("invalid gzip member at offset " + memberOffset, ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the payload of a record.
+     */
+    private static class PayloadStream extends InputStream {
+
+        private final PositionedInput in;
+
+        private long remaining;
+
+        PayloadStream(PositionedInput in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if( remaining <= 0 ) return -1;
+            int b = in.read();
+            if( b != -1 ) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if( remaining <= 0 ) return -1;
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if( n > 0 ) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            n = Math.min(n, remaining);
+            if( n <= 0 ) return 0;
+            if( !in.skip(n) ) {
+                remaining = 0;
+                throw new EOFException("truncated record");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package eu.scape_project.pt.util.warc;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A record of a WARC or ARC file.
+ */
+public class WebArchiveRecord {
+
+    private final String id;
+
+    private final String type;
+
+    private final long offset;
+
+    private final long length;
+
+    private final Map<String, String> headers;
+
+    private final InputStream payload;
+
+    WebArchiveRecord(String id, String type, long offset, long length,
+            Map<String, String> headers, InputStream payload) {
+        this.id = id;
+        this.type = type;
+        this.offset = offset;
+        this.length = length;
+        this.headers = headers;
+        this.payload = payload;
+    }
+
+    /**
+     * Gets the WARC-Record-ID or, for ARC records, the URL and date.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the WARC-Type, ARC records are of type response.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the offset of the record, or of its gzip member, in the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the length of the payload.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets a header of the record.
+     *
+     * @param name case-insensitive name of the header
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * Gets the payload, ie. the record's content block. It can only be 
+     * read until the next record is read.
+     */
+    public InputStream getPayload() {
+        return payload;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+public class ToolWrapperTest {
+
+    private File tmp;
+    private ToolWrapper wrapper;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = File.createTempFile("wrappertest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        URL res = getClass().getClassLoader().getResource("toolspecs");
+        Configuration conf = new Configuration();
+        conf.set(PropertyNames.REPO_LOCATION, new File(res.getFile()).getAbsolutePath());
+        conf.set(PropertyNames.EXEC_MODE, "shell");
+        wrapper = new ToolWrapper();
+        wrapper.setup(conf);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(tmp);
+    }
+
+    @Test
+    public void testFailingToolReportsStderr() throws Exception {
+        URL input = getClass().getClassLoader().getResource("ps2pdf-input.ps");
+        try {
+            // foo is not installed, so the shell exits with 127
+            wrapper.wrap("foo bar --input=\"" + input + "\"", tmp.getAbsolutePath());
+            fail("failing tool not reported");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("stderr of foo"));
+        }
+    }
+
+}
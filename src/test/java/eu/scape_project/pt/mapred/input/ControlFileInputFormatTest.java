@@ -17,21 +17,29 @@ package eu.scape_project.pt.mapred.input;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
-import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -146,10 +154,7 @@ public class ControlFileInputFormatTest {
     }
 
     @Test
-    public void testWriteNewControlFileAndCreateSplits() throws IOException {
-        MockupFileSystem fs = new MockupFileSystem();
-        Path newControlFile = new Path("newControlFile");
-        fs.addFile("newControlFile", true, null);
+    public void testCreateSplits() throws IOException {
         Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>(){{
             put("host1", new ArrayList<String>(){{
                 add("line1-1");
@@ -187,87 +192,235 @@ public class ControlFileInputFormatTest {
                 add("line4-10");
             }});
         }};
-        List<FileSplit> splits = ControlFileInputFormat.writeNewControlFileAndCreateSplits(
-                newControlFile, fs, locationMap, 3);
+        List<ControlLineSplit> splits = ControlFileInputFormat.createSplits(
+                locationMap, 3);
+
+        long start = 0;
+        int lines = 0;
+        int i = 0;
+        for( ControlLineSplit split : splits ) {
+            LOG.debug(++i + ".split = " + split.toString());
+            assertEquals(start, split.getStart());
+            start += split.getLength();
+            lines += split.getLines().size();
+            String cont = "";
+            for( String line : split.getLines() ) {
+                cont += line + "\n";
+            }
+            assertEquals(cont.length(), split.getLength());
+            LOG.debug("  content = " + cont);
+            if( cont.startsWith("line1-1") ) {
+                String expected = "";
+                for( String line : locationMap.get("host1") ) {
+                    expected += line + "\n";
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line2-1") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host2") ) {
+                    expected += line + "\n";
+                    if( ++j == 3 ) break;
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line2-4") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host2") ) {
+                    if( ++j <= 3 ) continue;
+                    expected += line + "\n";
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line3-1") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host3") ) {
+                    expected += line + "\n";
+                    if( ++j == 4 ) break;
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line3-5") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host3") ) {
+                    if( ++j <= 4 ) continue;
+                    expected += line + "\n";
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line4-1") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host4") ) {
+                    expected += line + "\n";
+                    if( ++j == 3 ) break;
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line4-4") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host4") ) {
+                    if( ++j <= 3 ) continue;
+                    expected += line + "\n";
+                    if( ++j > 7  ) break;
+                }
+                assertEquals(expected, cont);
+            } else if( cont.startsWith("line4-7") ) {
+                String expected = "";
+                int j = 0;
+                for( String line : locationMap.get("host4") ) {
+                    if( ++j <= 6 ) continue;
+                    expected += line + "\n";
+                }
+                assertEquals(expected, cont);
+            } else {
+                fail("wrong split");
+            }
+        }
+        assertEquals(27, lines);
+    }
+
+    @Test
+    public void testCreateWeightedSplits() {
+        Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
+        Map<String, ArrayList<Long>> weightMap = new HashMap<String, ArrayList<Long>>();
+        // one large file, then small ones, then a single line left
+        long[] weights = {100, 10, 20, 10, 10, 5, 60, 1};
+        ArrayList<String> lines = new ArrayList<String>();
+        ArrayList<Long> lineWeights = new ArrayList<Long>();
+        for( int l = 0; l < weights.length; l++ ) {
+            lines.add("line" + l);
+            lineWeights.add(weights[l]);
+        }
+        locationMap.put("host1", lines);
+        weightMap.put("host1", lineWeights);
+
+        List<ControlLineSplit> splits = ControlFileInputFormat.createSplits(
+                locationMap, weightMap, 50, 2, 3);
+        assertEquals(3, splits.size());
+        // the large file gets a second line as the minimum
+        assertEquals(lines.subList(0, 2), splits.get(0).getLines());
+        // capped by the maximum
+        assertEquals(lines.subList(2, 5), splits.get(1).getLines());
+        // the last line is added to the previous split
+        assertEquals(lines.subList(5, 8), splits.get(2).getLines());
+        long start = 0;
+        for( ControlLineSplit split : splits ) {
+            assertEquals(start, split.getStart());
+            assertArrayEquals(new String[] { "host1" }, split.getLocations());
+            start += split.getLength();
+        }
 
-        FSDataInputStream bis = fs.open(newControlFile);
+        assertEquals(54, ControlFileInputFormat.getAverageWeight(weightMap, 2));
+    }
+
+    @Test
+    public void testCreateSplitsWithoutLocation() {
+        Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add("line1");
+        lines.add("line2");
+        lines.add("line3");
+        locationMap.put(ControlFileInputFormat.NO_LOCATION, lines);
+
+        List<ControlLineSplit> splits = ControlFileInputFormat.createSplits(locationMap, 2);
+        assertEquals(1, splits.size());
+        assertEquals(lines, splits.get(0).getLines());
+        assertEquals(0, splits.get(0).getLocations().length);
+        ArrayList<Long> weights = new ArrayList<Long>();
+        weights.add(1L);
+        weights.add(1L);
+        weights.add(1L);
+        Map<String, ArrayList<Long>> weightMap = new HashMap<String, ArrayList<Long>>();
+        weightMap.put(ControlFileInputFormat.NO_LOCATION, weights);
+        splits = ControlFileInputFormat.createSplits(locationMap, weightMap, 2, 1, 10);
+        assertEquals(2, splits.size());
+        assertEquals(0, splits.get(1).getLocations().length);
+    }
+
+    /**
+     * Lines of files on a shared filesystem have no hosts but are kept.
+     */
+    @Test
+    public void testLinesWithoutHosts() throws IOException {
+        File tmp = File.createTempFile("controltest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        try {
+            File input = new File(tmp, "input");
+            input.createNewFile();
+            File controlFile = new File(tmp, "control");
+            Writer out = new OutputStreamWriter(new FileOutputStream(controlFile), "UTF-8");
+            try {
+                out.write("foo bar --input=\"" + input.toURI() + "\"\n");
+                out.write("foo bar --input=\"" + input.toURI() + "\"\n");
+            } finally {
+                out.close();
+            }
+            Map<String, ArrayList<String>> locationMap = ControlFileInputFormat.createLocationMap(
+                    new Path(controlFile.toURI()), new Configuration(), repo, new PipedArgsParser());
+            assertEquals(1, locationMap.size());
+            assertEquals(2, locationMap.get(ControlFileInputFormat.NO_LOCATION).size());
+            List<ControlLineSplit> splits = ControlFileInputFormat.createSplits(locationMap, 10);
+            assertEquals(1, splits.size());
+            assertEquals(0, splits.get(0).getLocations().length);
+        } finally {
+            FileUtil.fullyDelete(tmp);
+        }
+    }
+
+    /**
+     * The bytes of an archive are spread over the lines of its members.
+     */
+    @Test
+    public void testArchiveWeights() throws IOException {
+        File tmp = File.createTempFile("controltest", "");
+        tmp.delete();
+        tmp.mkdirs();
         try {
-            int i = 0;
-            for( FileSplit split : splits ) {
-                LOG.debug(++i + ".split = " + split.toString());
-                byte[] content = new byte[(int)split.getLength()];
-                bis.read((int)split.getStart(), content, 0, (int)split.getLength());
-                String cont = new String(content);
-                LOG.debug("  content = " + new String(content));
-                if( cont.startsWith("line1-1") ) {
-                    String expected = "";
-                    for( String line : locationMap.get("host1") ) {
-                        expected += line + "\n";
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line2-1") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host2") ) {
-                        expected += line + "\n";
-                        if( ++j == 3 ) break;
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line2-4") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host2") ) {
-                        if( ++j <= 3 ) continue;
-                        expected += line + "\n";
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line3-1") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host3") ) {
-                        expected += line + "\n";
-                        if( ++j == 4 ) break;
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line3-5") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host3") ) {
-                        if( ++j <= 4 ) continue;
-                        expected += line + "\n";
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line4-1") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host4") ) {
-                        expected += line + "\n";
-                        if( ++j == 3 ) break;
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line4-4") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host4") ) {
-                        if( ++j <= 3 ) continue;
-                        expected += line + "\n";
-                        if( ++j > 7  ) break;
-                    }
-                    assertEquals(expected, cont);
-                } else if( cont.startsWith("line4-7") ) {
-                    String expected = "";
-                    int j = 0;
-                    for( String line : locationMap.get("host4") ) {
-                        if( ++j <= 6 ) continue;
-                        expected += line + "\n";
-                    }
-                    assertEquals(expected, cont);
-                } else {
-                    fail("wrong split");
+            File archive = new File(tmp, "bundle.tar");
+            OutputStream bytes = new FileOutputStream(archive);
+            try {
+                bytes.write(new byte[300]);
+            } finally {
+                bytes.close();
+            }
+            File controlFile = new File(tmp, "control");
+            Writer out = new OutputStreamWriter(new FileOutputStream(controlFile), "UTF-8");
+            try {
+                for( String member : new String[] { "a", "b", "c" } ) {
+                    out.write("foo bar --input=\"tar:" + archive.toURI() + "!/" + member + "\"\n");
                 }
+            } finally {
+                out.close();
             }
+            Map<String, ArrayList<Long>> weightMap = new HashMap<String, ArrayList<Long>>();
+            Map<String, ArrayList<String>> locationMap = ControlFileInputFormat.createLocationMap(
+                    new Path(controlFile.toURI()), new Configuration(), repo, 
+                    new PipedArgsParser(), weightMap, null);
+            assertEquals(3, locationMap.get(ControlFileInputFormat.NO_LOCATION).size());
+            assertEquals(Arrays.asList(100L, 100L, 100L), 
+                    weightMap.get(ControlFileInputFormat.NO_LOCATION));
         } finally {
-            bis.close();
+            FileUtil.fullyDelete(tmp);
         }
     }
+
+    @Test
+    public void testRecordReader() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        lines.add("line1");
+        lines.add("line-2");
+        ControlLineSplit split = new ControlLineSplit(100, lines, new String[] { "host" });
+        assertEquals(13, split.getLength());
+
+        ControlLineRecordReader reader = new ControlLineRecordReader();
+        reader.initialize(split, null);
+        assertTrue(reader.nextKeyValue());
+        assertEquals(100, reader.getCurrentKey().get());
+        assertEquals("line1", reader.getCurrentValue().toString());
+        assertTrue(reader.nextKeyValue());
+        assertEquals(106, reader.getCurrentKey().get());
+        assertEquals("line-2", reader.getCurrentValue().toString());
+        assertFalse(reader.nextKeyValue());
+    }
 }
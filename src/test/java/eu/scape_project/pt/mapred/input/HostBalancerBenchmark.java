@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.mapred.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Compares assigning control lines to hosts by a {@link HostBalancer} with
+ * the list based balancing createLocationMap used before. The lines'
+ * input files are located by a {@link MockupFileSystem} whose files have
+ * 1 to 4 blocks with 3 replicas each.
+ *
+ * Not run by the unit tests, start it with
+ * <code>java -cp target/classes:target/test-classes
+ * eu.scape_project.pt.mapred.input.HostBalancerBenchmark [lines] [hosts]</code>.
+ */
+public class HostBalancerBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int numHosts = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Random random = new Random(42);
+        MockupFileSystem fs = new MockupFileSystem();
+        String[][] hostsOfFiles = new String[numLines][];
+        for( int l = 0; l < numLines; l++ ) {
+            BlockLocation[] blocks = new BlockLocation[1 + random.nextInt(4)];
+            for( int b = 0; b < blocks.length; b++ ) {
+                String[] replicas = new String[3];
+                for( int r = 0; r < replicas.length; r++ ) {
+                    replicas[r] = "host" + random.nextInt(numHosts);
+                }
+                blocks[b] = new BlockLocation(null, replicas, 0, 0);
+            }
+            Path file = new Path("file" + l);
+            fs.addFile(file.toString(), true, blocks);
+            hostsOfFiles[l] = ControlFileInputFormat.getSortedHosts(fs, new Path[]{file});
+        }
+        System.out.println(numLines + " lines, " + numHosts + " hosts");
+
+        // warm up
+        int warmUp = Math.min(numLines, 10000);
+        lists(hostsOfFiles, warmUp);
+        balancer(hostsOfFiles, warmUp);
+
+        long start = System.nanoTime();
+        Map<String, ArrayList<String>> expected = lists(hostsOfFiles, numLines);
+        long lists = System.nanoTime() - start;
+        start = System.nanoTime();
+        Map<String, ArrayList<String>> actual = balancer(hostsOfFiles, numLines);
+        long balancer = System.nanoTime() - start;
+        if( !expected.equals(actual) )
+            throw new IllegalStateException("assignments differ");
+
+        System.out.println(String.format("lists     %8d ms", lists / 1000000));
+        System.out.println(String.format("balancer  %8d ms", balancer / 1000000));
+    }
+
+    private static Map<String, ArrayList<String>> balancer(String[][] hostsOfFiles, int numLines) {
+        Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
+        HostBalancer balancer = new HostBalancer();
+        for( int l = 0; l < numLines; l++ ) {
+            String host = balancer.assign(hostsOfFiles[l], l + 1);
+            ArrayList<String> lines = locationMap.get(host);
+            if( lines == null ) {
+                lines = new ArrayList<String>();
+                locationMap.put(host, lines);
+            }
+            lines.add("line" + l);
+        }
+        return locationMap;
+    }
+
+    private static Map<String, ArrayList<String>> lists(String[][] hostsOfFiles, int numLines) {
+        Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
+        ArrayList<String> allHosts = new ArrayList<String>();
+        for( int l = 0; l < numLines; l++ ) {
+            ControlFileInputFormat.addToLocationMap(locationMap,
+                    orderHosts(allHosts, hostsOfFiles[l]), "line" + l, l + 1);
+        }
+        return locationMap;
+    }
+
+    /**
+     * The former ControlFileInputFormat.orderHosts.
+     */
+    private static String[] orderHosts(ArrayList<String> allHosts, String[] hostsOfFile) {
+        for ( String host : hostsOfFile ) {
+            if( !allHosts.contains(host)) allHosts.add(host);
+        }
+        ArrayList<String> theseHosts = (ArrayList<String>)allHosts.clone();
+        for ( String host : hostsOfFile ) {
+            theseHosts.remove(host);
+        }
+
+        String[] hosts = new String[theseHosts.size() + hostsOfFile.length];
+        int h = 0;
+        for ( String host : hostsOfFile ) {
+            hosts[h] = hostsOfFile[h];
+            h++;
+        }
+        for( String host : theseHosts ) {
+            hosts[h] = theseHosts.get(h-hostsOfFile.length);
+            h++;
+        }
+        return hosts;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.mapred.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class HostBalancerTest {
+
+    @Test
+    public void testBalancing() {
+        HostBalancer balancer = new HostBalancer();
+        String[] hosts = {"hostA", "hostB", "hostC"};
+        // all lines prefer hostA, the others get their share in order
+        assertEquals("hostA", balancer.assign(hosts, 1));
+        assertEquals("hostB", balancer.assign(hosts, 2));
+        assertEquals("hostC", balancer.assign(hosts, 3));
+        assertEquals("hostA", balancer.assign(new String[]{"hostA"}, 4));
+        assertEquals("hostB", balancer.assign(new String[]{"hostA"}, 5));
+        assertEquals("hostC", balancer.assign(new String[0], 6));
+    }
+
+    @Test
+    public void testNoHosts() {
+        assertNull(new HostBalancer().assign(new String[0], 1));
+    }
+
+    /**
+     * Compares the assignments with those of
+     * {@link ControlFileInputFormat#addToLocationMap} given all hosts known
+     * so far, the line's hosts first.
+     */
+    @Test
+    public void testSameAsLocationMap() {
+        Random random = new Random(42);
+        HostBalancer balancer = new HostBalancer();
+        Map<String, ArrayList<String>> locationMap = new HashMap<String, ArrayList<String>>();
+        Set<String> allHosts = new LinkedHashSet<String>();
+        for( int l = 1; l <= 20000; l++ ) {
+            String[] hostsOfFile = new String[random.nextInt(4)];
+            for( int h = 0; h < hostsOfFile.length; h++ ) {
+                // skewed, so some hosts get more lines than their share
+                hostsOfFile[h] = "host" + (int)(Math.pow(random.nextDouble(), 3) * 100) + "-" + h;
+            }
+            for( String host : hostsOfFile ) {
+                allHosts.add(host);
+            }
+            Set<String> ordered = new LinkedHashSet<String>();
+            for( String host : hostsOfFile ) {
+                ordered.add(host);
+            }
+            ordered.addAll(allHosts);
+
+            String line = "line" + l;
+            ControlFileInputFormat.addToLocationMap(locationMap,
+                    ordered.toArray(new String[0]), line, l);
+            String host = balancer.assign(hostsOfFile, l);
+            String expected = null;
+            for( Map.Entry<String, ArrayList<String>> entry : locationMap.entrySet() ) {
+                ArrayList<String> lines = entry.getValue();
+                if( lines.get(lines.size() - 1) == line ) expected = entry.getKey();
+            }
+            assertEquals("line " + l, expected, host);
+        }
+    }
+
+}
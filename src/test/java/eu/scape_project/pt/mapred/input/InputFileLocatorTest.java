@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.mapred.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.scape_project.pt.mapred.input.InputFileLocator.FileLocation;
+
+public class InputFileLocatorTest {
+
+    private File tmp;
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = File.createTempFile("locatortest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        fs = FileSystem.getLocal(new Configuration());
+        for( int i = 0; i < 5; i++ ) {
+            createFile("file" + i, 10 + i);
+        }
+        new File(tmp, "dir/sub").mkdirs();
+        createFile("dir/a", 1);
+        createFile("dir/sub/b", 2);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(tmp);
+    }
+
+    @Test
+    public void testListing() throws IOException {
+        assertLocated(new InputFileLocator(fs, 4, 2));
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        assertLocated(new InputFileLocator(fs, 4, Integer.MAX_VALUE));
+    }
+
+    private void assertLocated(InputFileLocator locator) throws IOException {
+        for( int i = 0; i < 5; i++ ) {
+            locator.add(path("file" + i));
+        }
+        locator.add(path("dir"));
+        locator.add(path("missing"));
+        locator.add(path("dir/missing"));
+        locator.resolve();
+
+        for( int i = 0; i < 5; i++ ) {
+            List<FileLocation> files = locator.get(path("file" + i));
+            assertEquals(1, files.size());
+            assertEquals(10 + i, files.get(0).status.getLen());
+            assertTrue(files.get(0).blocks.length > 0);
+        }
+        List<FileLocation> files = locator.get(path("dir"));
+        assertEquals(2, files.size());
+        assertEquals(3, files.get(0).status.getLen() + files.get(1).status.getLen());
+        assertEquals(0, locator.get(path("missing")).size());
+        assertEquals(0, locator.get(path("dir/missing")).size());
+    }
+
+    private Path path(String name) {
+        return new Path(new File(tmp, name).getAbsolutePath());
+    }
+
+    private void createFile(String name, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(tmp, name));
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+}
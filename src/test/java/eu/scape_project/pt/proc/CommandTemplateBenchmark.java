@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.proc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares rendering commands with 1 to 50 placeholders by a
+ * {@link CommandTemplate} with the regular expression based replacement
+ * ToolProcessor used before.
+ *
+ * Not run by the unit tests, start it with
+ * <code>java -cp target/classes:target/test-classes
+ * eu.scape_project.pt.proc.CommandTemplateBenchmark [iterations]</code>.
+ */
+public class CommandTemplateBenchmark {
+
+    private static final int[] PLACEHOLDERS = {1, 2, 5, 10, 20, 50};
+
+    /**
+     * Keeps results alive.
+     */
+    private static int sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        System.out.println("placeholders  regex ns/op  template ns/op");
+        for( int n : PLACEHOLDERS ) {
+            StringBuilder cmd = new StringBuilder("tool");
+            Map<String, String> params = new HashMap<String, String>();
+            for( int i = 0; i < n; i++ ) {
+                cmd.append(" --p").append(i).append("=${param").append(i).append("}");
+                params.put("param" + i, "/local/path/to/file-" + i);
+            }
+            String strCmd = cmd.toString();
+            if( !replaceAll(strCmd, params).equals(
+                        CommandTemplate.compile(strCmd).render(params)) )
+                throw new IllegalStateException("results differ for " + strCmd);
+
+            // warm up
+            regex(strCmd, params, iterations);
+            template(strCmd, params, iterations);
+
+            long regex = regex(strCmd, params, iterations);
+            long template = template(strCmd, params, iterations);
+            System.out.println(String.format("%12d  %11d  %14d",
+                        n, regex / iterations, template / iterations));
+        }
+    }
+
+    private static long regex(String strCmd, Map<String, String> params, int iterations) {
+        long start = System.nanoTime();
+        for( int i = 0; i < iterations; i++ )
+            sink += replaceAll(strCmd, params).length();
+        return System.nanoTime() - start;
+    }
+
+    private static long template(String strCmd, Map<String, String> params, int iterations) {
+        long start = System.nanoTime();
+        for( int i = 0; i < iterations; i++ )
+            sink += CommandTemplate.forCommand(strCmd).render(params).length();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The former ToolProcessor.replaceAll.
+     */
+    private static String replaceAll(String strCmd, Map<String,String> mapInputs) {
+        if( mapInputs.isEmpty() ) return strCmd;
+        StringBuilder regexp = new StringBuilder();
+        for( String input : mapInputs.keySet())
+            regexp.append("\\$\\{" + input + "\\}|");
+        regexp.setLength(regexp.length() - 1);
+
+        StringBuffer sb = new StringBuffer();
+        Pattern p = Pattern.compile(regexp.toString());
+        Matcher m = p.matcher(strCmd);
+
+        while (m.find())
+        {
+            String param = m.group().substring(2, m.group().length() - 1);
+            m.appendReplacement(sb, mapInputs.get(param));
+        }
+        m.appendTail(sb);
+
+        return sb.toString();
+    }
+
+}
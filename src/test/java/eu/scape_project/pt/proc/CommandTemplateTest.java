@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.proc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CommandTemplateTest {
+
+    @Test
+    public void testRender() {
+        CommandTemplate template = CommandTemplate.compile(
+                "ps2pdf ${input} ${output} -r${dpi}");
+        assertArrayEquals(new String[]{"input", "output", "dpi"}, template.getSlots());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("input", "in.ps");
+        params.put("output", "out.pdf");
+        params.put("dpi", "300");
+        assertEquals("ps2pdf in.ps out.pdf -r300", template.render(params));
+    }
+
+    @Test
+    public void testRenderKeepsUnknownPlaceholders() {
+        CommandTemplate template = CommandTemplate.compile("foo ${input} ${other} $HOME ${");
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("input", "a$1\\b");
+        assertEquals("foo a$1\\b ${other} $HOME ${", template.render(params));
+    }
+
+    @Test
+    public void testRenderWithoutPlaceholders() {
+        CommandTemplate template = CommandTemplate.compile("file -b -");
+        assertEquals("file -b -", template.render(new HashMap<String, String>()));
+    }
+
+    @Test
+    public void testForCommandCaches() {
+        assertSame(CommandTemplate.forCommand("file -b ${input}"),
+                CommandTemplate.forCommand("file -b ${input}"));
+    }
+}
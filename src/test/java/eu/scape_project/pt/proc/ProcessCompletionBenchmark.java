@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.proc;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-invocation latency of waiting for a short-lived process
+ * by polling its exit value (as ToolProcessor used to) with waiting on a
+ * {@link ProcessCompletion}.
+ *
+ * Not run by the unit tests, start it with
+ * <code>java -cp target/classes:target/test-classes
+ * eu.scape_project.pt.proc.ProcessCompletionBenchmark [invocations]</code>.
+ */
+public class ProcessCompletionBenchmark {
+
+    private static final long TIMEOUT_MINUTES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int invocations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String[] cmd = System.getProperty("os.name").startsWith("Windows")
+            ? new String[]{"cmd.exe", "/C", "rem"}
+            : new String[]{"sh", "-c", "true"};
+
+        // warm up both variants
+        run(cmd, invocations / 10, true);
+        run(cmd, invocations / 10, false);
+
+        long polling = run(cmd, invocations, true);
+        long completion = run(cmd, invocations, false);
+
+        System.out.println("invocations:            " + invocations);
+        System.out.println("polling    ms/process:  "
+                + (double)TimeUnit.NANOSECONDS.toMicros(polling) / invocations / 1000);
+        System.out.println("completion ms/process:  "
+                + (double)TimeUnit.NANOSECONDS.toMicros(completion) / invocations / 1000);
+    }
+
+    /**
+     * Starts and waits for the command sequentially.
+     *
+     * @return total time in nanoseconds
+     */
+    private static long run(String[] cmd, int invocations, boolean polling)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for( int i = 0; i < invocations; i++ ) {
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            Process proc = pb.start();
+            boolean completed = polling
+                ? pollFor(proc, TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                : new ProcessCompletion(proc).await(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            if( !completed )
+                throw new IllegalStateException("process did not terminate");
+            proc.getInputStream().close();
+            proc.getOutputStream().close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The former ToolProcessor.waitFor(long, TimeUnit).
+     */
+    private static boolean pollFor(Process proc, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long startTime = System.nanoTime();
+        long rem = unit.toNanos(timeout);
+
+        do {
+            try {
+                proc.exitValue();
+                return true;
+            } catch(IllegalThreadStateException ex) {
+                if (rem > 0)
+                    Thread.sleep(
+                        Math.min(TimeUnit.NANOSECONDS.toMillis(rem) + 1, 100));
+            }
+            rem = unit.toNanos(timeout) - (System.nanoTime() - startTime);
+        } while (rem > 0);
+        return false;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.proc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class StreamPumpTest {
+
+    @After
+    public void tearDown() {
+        StreamPump.configure(StreamPump.DEFAULT_BUFFER_SIZE, StreamPump.DEFAULT_MAX_THREADS);
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        StreamPump.configure(1000, StreamPump.DEFAULT_MAX_THREADS);
+        byte[] data = new byte[2500];
+        for( int i = 0; i < data.length; i++ ) {
+            data[i] = (byte)i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicLong counter = new AtomicLong();
+        assertEquals(data.length, StreamPump.copy(new ByteArrayInputStream(data), out, counter));
+        assertEquals(data.length, counter.get());
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testOverflowIsBounded() throws Exception {
+        StreamPump.configure(StreamPump.DEFAULT_BUFFER_SIZE, 1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable pump = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    done.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        List<Future<?>> pumps = new ArrayList<Future<?>>();
+        try {
+            // one pump thread and the extra threads
+            for( int i = 0; i < 1 + StreamPump.MAX_OVERFLOW_THREADS; i++ ) {
+                pumps.add(StreamPump.submit(pump));
+            }
+            try {
+                StreamPump.submit(pump);
+                fail("unbounded extra threads");
+            } catch (RejectedExecutionException ex) {
+                // expected
+            }
+        } finally {
+            done.countDown();
+        }
+        for( Future<?> f : pumps ) {
+            f.get();
+        }
+    }
+
+}
@@ -24,10 +24,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configured;
@@ -114,6 +120,52 @@ public class ToolProcessorTest extends Configured {
         LOG.info("output: " + new String(baos.toByteArray()) );
     }
 
+    @Test
+    public void testExecutePipedFileIdentifyStdin() throws Exception {
+
+        LOG.info("TEST file-identify-stdin | file-identify-stdin");
+
+        Tool tool = repo.getTool("file");
+
+        String tmpInputFile = this.getClass().getClassLoader().getResource("ps2pdf-input.ps").getFile();
+
+        ToolProcessor first = new ToolProcessor(tool);
+        first.setOperation(first.findOperation("identify-stdin"));
+        ToolProcessor second = new ToolProcessor(tool);
+        second.setOperation(second.findOperation("identify-stdin"));
+
+        FileInputStream fin = new FileInputStream( new File( tmpInputFile ));
+        StreamProcessor in = new StreamProcessor(fin);
+        in.next(first);
+        first.next(second);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        second.next( new StreamProcessor(baos));
+        try {
+            // both tools run in one shell pipeline
+            assertEquals(0, in.execute());
+        } finally {
+            fin.close();
+        }
+        // the second file identifies the first one's description
+        assertEquals("ASCII text\n", new String(baos.toByteArray()));
+        assertEquals(0, second.waitFor());
+    }
+
+    @Test
+    public void testExitValueOfFusedPipeline() throws Exception {
+        ToolProcessor first = failingProcessor();
+        Tool tool = repo.getTool("file");
+        ToolProcessor second = new ToolProcessor(tool);
+        second.setOperation(second.findOperation("identify-stdin"));
+        first.next(second);
+        second.next( new StreamProcessor(new ByteArrayOutputStream()));
+
+        // the failure of the first tool fails the pipeline, though file succeeds
+        assertEquals(127, first.execute());
+        assertEquals(127, second.waitFor());
+    }
+
     @Test
     public void testExecutePs2pdfConvert() throws Exception {
         LOG.info("TEST ps2pdf-convert");
@@ -227,5 +279,92 @@ public class ToolProcessorTest extends Configured {
         }
     }
 
+    @Test
+    public void testStderrIsSeparated() throws Exception {
+        Tool tool = repo.getTool("foo");
+
+        ToolProcessor processor = new ToolProcessor(tool);
+        processor.setOperation(processor.findOperation("bar"));
+        processor.setExecMode(ToolProcessor.ExecMode.SHELL);
+
+        Map<String, String> mapInput = new HashMap<String, String>();
+        mapInput.put("input", "some-input");
+        processor.setInputFileParameters( mapInput );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        processor.next( new StreamProcessor(baos));
+        processor.execute();
+
+        // the shell complains about the missing command foo on stderr only
+        assertEquals("", new String(baos.toByteArray()));
+        assertTrue(processor.getStderr().contains("foo"));
+    }
+
+    @Test
+    public void testExitValue() throws Exception {
+        ToolProcessor processor = failingProcessor();
+        processor.next( new StreamProcessor(new ByteArrayOutputStream()));
+
+        // the shell exits with 127 for a missing command
+        assertEquals(127, processor.execute());
+    }
+
+    @Test
+    public void testExitValueOfChain() throws Exception {
+        ToolProcessor first = failingProcessor();
+        first.setPipeFusion(false);
+        Tool tool = repo.getTool("file");
+        ToolProcessor second = new ToolProcessor(tool);
+        second.setOperation(second.findOperation("identify-stdin"));
+        second.setExecMode(ToolProcessor.ExecMode.SHELL);
+        first.next(second);
+        second.next( new StreamProcessor(new ByteArrayOutputStream()));
+
+        // the first tool's failure is reported, whether or not file succeeds
+        assertEquals(127, first.execute());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailingOutput() throws Exception {
+        Tool tool = repo.getTool("file");
+        ToolProcessor processor = new ToolProcessor(tool);
+        processor.setOperation(processor.findOperation("identify"));
+        Map<String, String> mapInput = new HashMap<String, String>();
+        mapInput.put("input", this.getClass().getClassLoader()
+                .getResource("ps2pdf-input.ps").getFile());
+        processor.setInputFileParameters( mapInput );
+        processor.next( new StreamProcessor(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("no space left");
+            }
+        }));
+
+        // file succeeds, but its output is lost
+        processor.execute();
+    }
+
+    private ToolProcessor failingProcessor() throws IOException {
+        Tool tool = repo.getTool("foo");
+        ToolProcessor processor = new ToolProcessor(tool);
+        processor.setOperation(processor.findOperation("bar"));
+        processor.setExecMode(ToolProcessor.ExecMode.SHELL);
+        Map<String, String> mapInput = new HashMap<String, String>();
+        mapInput.put("input", "some-input");
+        processor.setInputFileParameters( mapInput );
+        return processor;
+    }
+
+    @Test
+    public void testToArgv() {
+        assertArrayEquals(new String[]{"file", "-b", "some/input.ps"},
+                ToolProcessor.toArgv("file  -b some/input.ps "));
+        assertNull(ToolProcessor.toArgv("file -b \"some input.ps\""));
+        assertNull(ToolProcessor.toArgv("ps2pdf - - < in.ps"));
+        assertNull(ToolProcessor.toArgv("tar cf out.tar *.ps"));
+        assertNull(ToolProcessor.toArgv("file -b $HOME"));
+        assertNull(ToolProcessor.toArgv("LANG=C file -b in.ps"));
+        assertNull(ToolProcessor.toArgv(" "));
+    }
 
 }
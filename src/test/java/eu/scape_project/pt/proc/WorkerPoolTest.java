@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.proc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkerPoolTest {
+
+    private String strWorkerCmd;
+    private WorkerPool pool;
+
+    @Before
+    public void setUp() {
+        String script = this.getClass().getClassLoader().getResource("worker-stub.sh").getFile();
+        strWorkerCmd = "sh " + script;
+    }
+
+    @After
+    public void tearDown() {
+        if( pool != null ) pool.close();
+    }
+
+    @Test
+    public void testWorkerIsReused() throws Exception {
+        pool = new WorkerPool(WorkerPool.DEFAULT_MAX_REQUESTS, new File("."));
+
+        String first = request("file.identify", "file -b a.ps", 0);
+        String second = request("file.identify", "file -b b.ps", 0);
+
+        assertTrue(first.endsWith(" request 1: file -b a.ps\n"));
+        assertTrue(second.endsWith(" request 2: file -b b.ps\n"));
+        assertEquals(worker(first), worker(second));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testWorkerIsRecycled() throws Exception {
+        pool = new WorkerPool(2, new File("."));
+
+        String first = request("file.identify", "a", 0);
+        request("file.identify", "b", 0);
+        String third = request("file.identify", "c", 0);
+
+        assertTrue(third.endsWith(" request 1: c\n"));
+        assertFalse(worker(first).equals(worker(third)));
+    }
+
+    @Test
+    public void testExitCode() throws Exception {
+        pool = new WorkerPool(WorkerPool.DEFAULT_MAX_REQUESTS, new File("."));
+
+        request("file.identify", "fail now", 1);
+        String next = request("file.identify", "a", 0);
+        assertTrue(next.endsWith(" request 2: a\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMultiLineRequest() throws Exception {
+        pool = new WorkerPool(WorkerPool.DEFAULT_MAX_REQUESTS, new File("."));
+        request("file.identify", "a\nb", 0);
+    }
+
+    private String request(String key, String request, int exitCode) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(exitCode, pool.execute(key, strWorkerCmd, request, out));
+        return new String(out.toByteArray());
+    }
+
+    /**
+     * Gets the worker's process id from a response.
+     */
+    private static String worker(String response) {
+        return response.split(" ")[1];
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RuntimeHistoryTest {
+
+    private File tmp;
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = File.createTempFile("historytest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        fs = FileSystem.getLocal(new Configuration());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(tmp);
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals("file/identify|ps2pdf/convert", RuntimeHistory.key(new Command[] {
+            new Command("file", "identify"), new Command("ps2pdf", "convert") }));
+    }
+
+    @Test
+    public void testFit() {
+        RuntimeHistory history = new RuntimeHistory();
+        for( long bytes = 1000; bytes <= 100000; bytes *= 10 ) {
+            history.add("slow/convert", bytes, 0.5 + 2e-4 * bytes);
+            history.add("fast/identify", bytes, 0.1 + 2e-6 * bytes);
+        }
+        assertEquals(0.5, history.getOverhead("slow/convert"), 1e-9);
+        assertEquals(2e-4, history.getSecondsPerByte("slow/convert"), 1e-12);
+        assertEquals(0.1, history.getOverhead("fast/identify"), 1e-9);
+        assertEquals(0.1 + 2e-6 * 5000, history.predict("fast/identify", 5000), 1e-9);
+        // without history by all tool/actions
+        double all = history.predict("other/action", 5000);
+        assertTrue(all > history.predict("fast/identify", 5000));
+        assertTrue(all < history.predict("slow/convert", 5000));
+    }
+
+    @Test
+    public void testSameSize() {
+        RuntimeHistory history = new RuntimeHistory();
+        history.add("tool/action", 100, 1);
+        history.add("tool/action", 100, 3);
+        assertEquals(2, history.getOverhead("tool/action"), 1e-9);
+        assertEquals(0, history.getSecondsPerByte("tool/action"), 0);
+        assertEquals(2, history.predict("tool/action", 1000), 1e-9);
+    }
+
+    @Test
+    public void testNoOverhead() {
+        RuntimeHistory history = new RuntimeHistory();
+        history.add("tool/action", 100, 0);
+        history.add("tool/action", 200, 3);
+        assertEquals(0, history.getOverhead("tool/action"), 0);
+        assertEquals(0.01, history.getSecondsPerByte("tool/action"), 1e-9);
+    }
+
+    @Test
+    public void testArchiveLines() throws IOException {
+        RuntimeHistory history = new RuntimeHistory();
+        // two lines share an archive of 1000 bytes
+        history.add("tool/action", 10, Collections.singletonMap("a.tar", 1000L), 0.51);
+        history.add("tool/action", 10, Collections.singletonMap("a.tar", 1000L), 0.51);
+        history.add("tool/action", 0, Collections.singletonMap("b.tar", 3000L), 3);
+        assertFalse(history.isEmpty());
+        Path file = new Path(tmp.getAbsolutePath(), "history");
+        history.write(fs, file);
+        RuntimeHistory read = RuntimeHistory.read(fs, file);
+        assertEquals(0, read.getOverhead("tool/action"), 1e-9);
+        assertEquals(1e-3, read.getSecondsPerByte("tool/action"), 1e-12);
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        Path dir = new Path(tmp.getAbsolutePath());
+        Path file = new Path(new File(tmp, "history").getAbsolutePath());
+        assertTrue(RuntimeHistory.read(fs, file).isEmpty());
+
+        RuntimeHistory task1 = new RuntimeHistory();
+        task1.add("tool/action", 100, 1);
+        task1.write(fs, new Path(dir, RuntimeHistory.PREFIX + "-m-00000"));
+        RuntimeHistory task2 = new RuntimeHistory();
+        task2.add("tool/action", 300, 3);
+        task2.add("other/action", 10, 5);
+        task2.write(fs, new Path(dir, RuntimeHistory.PREFIX + "-m-00001"));
+        assertEquals(2, RuntimeHistory.merge(fs, dir, file));
+        assertFalse(new File(tmp, RuntimeHistory.PREFIX + "-m-00000").exists());
+        assertFalse(new File(tmp, RuntimeHistory.PREFIX + "-m-00001").exists());
+
+        RuntimeHistory history = RuntimeHistory.read(fs, file);
+        assertEquals(0.01, history.getSecondsPerByte("tool/action"), 1e-9);
+        assertEquals(5, history.predict("other/action", 1000), 1e-9);
+
+        // the next job adds to the history
+        task1.write(fs, new Path(dir, RuntimeHistory.PREFIX + "-m-00000"));
+        assertEquals(1, RuntimeHistory.merge(fs, dir, file));
+        history = RuntimeHistory.read(fs, file);
+        assertEquals(0.01, history.getSecondsPerByte("tool/action"), 1e-9);
+        assertEquals(2.5, history.predict("tool/action", 250), 1e-9);
+        assertEquals(0, RuntimeHistory.merge(fs, dir, file));
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SpillingOutputStreamTest {
+
+    @Test
+    public void testInMemory() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(16, null);
+        out.write("hello world".getBytes());
+        out.close();
+        assertFalse(out.isSpilled());
+        assertEquals(11, out.size());
+        assertEquals("hello world", out.toString());
+        assertEquals("hello", out.head(5));
+        out.delete();
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(16, null);
+        StringBuilder expected = new StringBuilder();
+        for( int i = 0; i < 100; i++ ) {
+            String line = "line " + i + "\n";
+            out.write(line.getBytes());
+            expected.append(line);
+        }
+        out.close();
+        assertTrue(out.isSpilled());
+        assertEquals(expected.length(), out.size());
+        assertEquals(expected.toString(), out.toString());
+        assertEquals("line 0\nline 1\n", out.head(14));
+        out.delete();
+    }
+
+}
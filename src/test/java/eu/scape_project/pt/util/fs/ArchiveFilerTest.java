@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Test;
+
+public class ArchiveFilerTest {
+
+    private static final String LONG = "dir/"
+        + "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx/"
+        + "yyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyyy/c.txt";
+
+    @After
+    public void tearDown() {
+        ArchiveFiler.releaseReaders();
+    }
+
+    @Test
+    public void testGetArchiveRef() {
+        assertEquals("hdfs:///bundle.tar", 
+                ArchiveFiler.getArchiveRef("tar:hdfs:///bundle.tar!/path/a.tif"));
+        assertNull(ArchiveFiler.getArchiveRef("hdfs:///bundle.tar"));
+        assertNull(ArchiveFiler.getArchiveRef("tar:hdfs:///bundle.tar"));
+    }
+
+    @Test
+    public void testTarMembers() throws IOException {
+        assertEquals("alpha", read(member("tar", "bundle.tar", "a.txt")));
+        assertEquals("beta", read(member("tar", "bundle.tar", "dir/b.txt")));
+        assertEquals("gamma", read(member("tar", "bundle.tar", LONG)));
+        // precedes the kept position
+        assertEquals("beta", read(member("tar", "bundle.tar", "dir/b.txt")));
+    }
+
+    @Test
+    public void testPaxPath() throws IOException {
+        // record lengths count the bytes of the UTF-8 encoded path
+        String records = "30 mtime=1350244992.023960108\n" 
+            + "22 path=d\u00e9j\u00e0/\u00fc.txt\n";
+        assertEquals("d\u00e9j\u00e0/\u00fc.txt", 
+                ArchiveReader.Tar.paxPath(records.getBytes("UTF-8")));
+        assertNull(ArchiveReader.Tar.paxPath("30 mtime=1350244992.023960108\n".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testZipMembers() throws IOException {
+        assertEquals("gamma", read(member("zip", "bundle.zip", LONG)));
+        assertEquals("alpha", read(member("zip", "bundle.zip", "a.txt")));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingMember() throws IOException {
+        member("tar", "bundle.tar", "missing.txt").getInputStream();
+    }
+
+    @Test
+    public void testLocalize() throws IOException {
+        File dir = File.createTempFile("archivetest", "");
+        dir.delete();
+        try {
+            Filer filer = member("tar", "bundle.tar", "dir/b.txt");
+            filer.setWorkingDir(dir.getAbsolutePath());
+            filer.localize();
+            File file = new File(filer.getAbsoluteFileRef());
+            assertEquals("b.txt", file.getName());
+            // not next to the archive, which may be on a read-only mount
+            assertTrue(file.getPath().startsWith(dir.getAbsolutePath() + File.separator));
+            assertEquals("beta", read(new FileInputStream(file)));
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    private Filer member(String type, String archive, String member) throws IOException {
+        String strArchive = new File(this.getClass().getClassLoader()
+                .getResource(archive).getFile()).toURI().toString();
+        return Filer.create(type + ":" + strArchive + "!/" + member, new Configuration());
+    }
+
+    private static String read(Filer filer) throws IOException {
+        return read(filer.getInputStream());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
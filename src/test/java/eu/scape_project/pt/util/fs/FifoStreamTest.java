@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FifoStreamTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+        dir = File.createTempFile("fifotest", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        if( dir != null ) FileUtil.fullyDelete(dir);
+    }
+
+    @Test
+    public void testToolReadsAll() throws Exception {
+        File fifo = new File(dir, "all");
+        FifoStream stream = FifoStream.create(filer(fifo, 1000000));
+        assertEquals("1000000", run("wc -c < " + fifo));
+        stream.close();
+        assertFalse(fifo.exists());
+    }
+
+    @Test
+    public void testToolReadsHead() throws Exception {
+        File fifo = new File(dir, "head");
+        FifoStream stream = FifoStream.create(filer(fifo, 10000000));
+        assertEquals("10", run("head -c 10 " + fifo + " | wc -c"));
+        stream.close();
+    }
+
+    @Test
+    public void testToolDoesNotRead() throws Exception {
+        File fifo = new File(dir, "unread");
+        FifoStream stream = FifoStream.create(filer(fifo, 1000000));
+        stream.close();
+        assertFalse(fifo.exists());
+    }
+
+    /**
+     * Closes before the writer may have opened the pipe.
+     */
+    @Test(timeout = 60000)
+    public void testCloseImmediately() throws Exception {
+        for( int i = 0; i < 100; i++ ) {
+            File fifo = new File(dir, "immediate" + i);
+            FifoStream.create(filer(fifo, 1000000)).close();
+            assertFalse(fifo.exists());
+        }
+    }
+
+    private static String run(String cmd) throws Exception {
+        Process proc = new ProcessBuilder("sh", "-c", cmd).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+        String line = reader.readLine();
+        proc.waitFor();
+        return line.trim();
+    }
+
+    private static Filer filer(final File file, final int length) {
+        return new Filer() {
+            @Override
+            public void setWorkingDir(String strDir) {
+            }
+            @Override
+            public void localize() {
+            }
+            @Override
+            public void delocalize() {
+            }
+            @Override
+            public String getAbsoluteFileRef() {
+                return file.getAbsolutePath();
+            }
+            @Override
+            public String getRelativeFileRef() {
+                return file.getName();
+            }
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(new byte[length]);
+            }
+            @Override
+            public OutputStream getOutputStream() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+/**
+ * Compares creating Filers for 10k file references by
+ * {@link Filer#create(String, Configuration)} with the former way of
+ * creating a new Configuration and looking up the FileSystem per reference.
+ * The hdfs scheme is mapped to the local file system, so no NameNode is
+ * needed and no file is accessed.
+ *
+ * Not run by the unit tests, start it with
+ * <code>java -cp target/classes:target/test-classes
+ * eu.scape_project.pt.util.fs.FilerCreateBenchmark [refs]</code>.
+ */
+public class FilerCreateBenchmark {
+
+    private static final String HDFS_IMPL = "fs.hdfs.impl";
+
+    /**
+     * Keeps results alive.
+     */
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        int refs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String[] strRefs = new String[refs];
+        for( int i = 0; i < refs; i++ ) {
+            strRefs[i] = "hdfs://namenode:8020/data/dir-" + (i % 100) + "/file-" + i + ".tif";
+        }
+        Configuration conf = new Configuration();
+        conf.set(HDFS_IMPL, RawLocalFileSystem.class.getName());
+
+        // warm up
+        perReference(strRefs);
+        shared(strRefs, conf);
+
+        long perReference = perReference(strRefs);
+        long shared = shared(strRefs, conf);
+        System.out.println("refs  per reference us/ref  shared us/ref");
+        System.out.println(String.format("%4d  %21.2f  %13.2f",
+                    refs, perReference / 1000.0 / refs, shared / 1000.0 / refs));
+    }
+
+    /**
+     * The former HDFSFiler constructor.
+     */
+    private static long perReference(String[] strRefs) throws Exception {
+        long start = System.nanoTime();
+        for( String strRef : strRefs ) {
+            Configuration conf = new Configuration();
+            conf.set(HDFS_IMPL, RawLocalFileSystem.class.getName());
+            Path path = new Path(new URI(strRef));
+            sink += path.getFileSystem(conf).hashCode();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long shared(String[] strRefs, Configuration conf) throws Exception {
+        long start = System.nanoTime();
+        for( String strRef : strRefs ) {
+            sink += Filer.create(strRef, conf).hashCode();
+        }
+        return System.nanoTime() - start;
+    }
+
+}
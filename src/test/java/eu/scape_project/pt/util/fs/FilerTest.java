@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+public class FilerTest {
+
+    private final List<File> tmpFiles = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for( File file : tmpFiles ) {
+            FileUtil.fullyDelete(file);
+        }
+        MemoryFiler.clear();
+    }
+
+    private File createTempFile(String suffix) throws IOException {
+        File file = File.createTempFile("filertest", suffix);
+        tmpFiles.add(file);
+        return file;
+    }
+
+    private File createTempDir() throws IOException {
+        File dir = createTempFile("");
+        assertTrue(dir.delete());
+        return dir;
+    }
+
+    @Test
+    public void testLocalFilerAccessesFileInPlace() throws IOException {
+        File file = createTempFile(".txt");
+        OutputStream out = new FileOutputStream(file);
+        out.write("content".getBytes());
+        out.close();
+
+        Filer filer = Filer.create(file.toURI().toString(), new Configuration());
+        assertTrue(filer instanceof LocalFiler);
+        filer.setWorkingDir("some/working/dir");
+        filer.localize();
+        assertEquals(file.getAbsolutePath(), filer.getAbsoluteFileRef());
+        assertEquals(file.getAbsolutePath(), filer.getRelativeFileRef());
+        filer.delocalize();
+
+        InputStream in = filer.getInputStream();
+        byte[] content = new byte[7];
+        assertEquals(7, in.read(content));
+        in.close();
+        assertEquals("content", new String(content));
+    }
+
+    @Test
+    public void testLocalFilerCreatesParentDirectory() throws IOException {
+        File dir = createTempDir();
+        File file = new File(dir, "sub/out.txt");
+
+        Filer filer = Filer.create(file.toURI().toString(), new Configuration());
+        filer.localize();
+        assertTrue(file.getParentFile().isDirectory());
+    }
+
+    @Test
+    public void testConfiguredScheme() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set(PropertyNames.FILER + ".mem", MemoryFiler.Factory.class.getName());
+        MemoryFiler.put("/in/a.txt", "a".getBytes());
+
+        Filer filer = Filer.create("mem:///in/a.txt", conf);
+        assertTrue(filer instanceof MemoryFiler);
+        File dir = createTempDir();
+        filer.setWorkingDir(dir.getAbsolutePath());
+        filer.localize();
+        File local = new File(filer.getAbsoluteFileRef());
+        assertEquals(new File(dir, "in/a.txt"), local);
+        assertEquals(1, local.length());
+
+        Filer out = Filer.create("mem:///out/a.txt", conf);
+        out.setWorkingDir(dir.getAbsolutePath());
+        File outFile = new File(out.getAbsoluteFileRef());
+        assertTrue(outFile.getParentFile().mkdirs());
+        assertTrue(local.renameTo(outFile));
+        out.delocalize();
+        assertArrayEquals("a".getBytes(), MemoryFiler.get("/out/a.txt"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownScheme() throws IOException {
+        Filer.create("unknown:///file", new Configuration());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalizationCacheTest {
+
+    private File tmp;
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = File.createTempFile("cachetest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        fs = FileSystem.getLocal(new Configuration());
+        for( LocalizationCache.Counter counter : LocalizationCache.Counter.values() )
+            LocalizationCache.takeCount(counter);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(tmp);
+    }
+
+    @Test
+    public void testHitAfterMiss() throws IOException {
+        LocalizationCache cache = new LocalizationCache(new File(tmp, "cache"), 1024);
+        new File(tmp, "cache").mkdirs();
+        File remote = createFile("remote", 100);
+
+        File local1 = new File(tmp, "local1");
+        File local2 = new File(tmp, "local2");
+        cache.localize(fs, fs.getFileStatus(new Path(remote.getAbsolutePath())), local1);
+        cache.localize(fs, fs.getFileStatus(new Path(remote.getAbsolutePath())), local2);
+
+        assertEquals(100, local1.length());
+        assertEquals(100, local2.length());
+        assertEquals(1, LocalizationCache.takeCount(LocalizationCache.Counter.MISSES));
+        assertEquals(1, LocalizationCache.takeCount(LocalizationCache.Counter.HITS));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File cacheDir = new File(tmp, "cache");
+        cacheDir.mkdirs();
+        LocalizationCache cache = new LocalizationCache(cacheDir, 250);
+        for( int i = 0; i < 3; i++ ) {
+            File remote = createFile("remote" + i, 100);
+            cache.localize(fs, fs.getFileStatus(new Path(remote.getAbsolutePath())),
+                    new File(tmp, "local" + i));
+            assertTrue(new File(tmp, "local" + i).exists());
+        }
+        assertEquals(3, LocalizationCache.takeCount(LocalizationCache.Counter.MISSES));
+        assertEquals(1, LocalizationCache.takeCount(LocalizationCache.Counter.EVICTIONS));
+        // the evicted entry's localized file is still there
+        assertEquals(100, new File(tmp, "local0").length());
+    }
+
+    private File createFile(String name, int length) throws IOException {
+        File file = new File(tmp, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Keeps files in memory, for tests and benchmarks without a filesystem.
+ * Register it with {@link Filer#register(String, FilerFactory)} or by
+ * setting <code>tomar.filer.mem</code> to {@link Factory}.
+ */
+public class MemoryFiler extends Filer {
+
+    /**
+     * Contents by file path, shared by all MemoryFilers.
+     */
+    private static final ConcurrentMap<String, byte[]> FILES = 
+        new ConcurrentHashMap<String, byte[]>();
+
+    public static class Factory implements FilerFactory {
+        @Override
+        public Filer create(URI uri, Configuration conf) {
+            return new MemoryFiler(uri);
+        }
+    }
+
+    private final String path;
+
+    MemoryFiler(URI uri) {
+        this.path = uri.getPath();
+    }
+
+    public static void put(String path, byte[] content) {
+        FILES.put(path, content);
+    }
+
+    public static byte[] get(String path) {
+        return FILES.get(path);
+    }
+
+    public static void clear() {
+        FILES.clear();
+    }
+
+    @Override
+    public void setWorkingDir(String strDir) {
+        this.dir = new File(strDir).isAbsolute() ? strDir : getTmpDir() + strDir;
+    }
+
+    @Override
+    public void localize() throws IOException {
+        byte[] content = FILES.get(path);
+        if( content == null ) return;
+        File file = new File(getAbsoluteFileRef());
+        File parent = file.getParentFile();
+        if( !parent.mkdirs() && !parent.isDirectory() ) 
+            throw new IOException("Could not create local directory: " + parent);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public void delocalize() throws IOException {
+        InputStream in = new FileInputStream(getAbsoluteFileRef());
+        try {
+            FILES.put(path, readAll(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String getAbsoluteFileRef() {
+        return dir + File.separator + getRelativeFileRef();
+    }
+
+    @Override
+    public String getRelativeFileRef() {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        byte[] content = FILES.get(path);
+        if( content == null ) throw new FileNotFoundException(path);
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                FILES.put(path, toByteArray());
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while( (n = in.read(buffer)) != -1 ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+public class OutputContainerTest {
+
+    private File tmp;
+    private Configuration conf;
+    private FileSystem fs;
+    private Path container;
+
+    @Before
+    public void setUp() throws IOException {
+        tmp = File.createTempFile("containertest", "");
+        tmp.delete();
+        tmp.mkdirs();
+        conf = new Configuration();
+        fs = FileSystem.getLocal(conf);
+        container = new Path(new File(tmp, OutputContainer.PREFIX + "-m-00000").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.fullyDelete(tmp);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        OutputContainer out = new OutputContainer(fs, container, conf);
+        out.add("hdfs:///out/a.txt", createFile("a.txt", "alpha"));
+        File dir = new File(tmp, "dir");
+        dir.mkdirs();
+        createFile("dir/b.txt", "beta");
+        out.add("hdfs:///out/dir", dir);
+        out.close();
+
+        assertArrayEquals("alpha".getBytes(), OutputContainer.read(fs, container, "hdfs:///out/a.txt"));
+        assertArrayEquals("beta".getBytes(), OutputContainer.read(fs, container, "hdfs:///out/dir/b.txt"));
+        try {
+            OutputContainer.read(fs, container, "hdfs:///out/c.txt");
+            fail("missing file read");
+        } catch (FileNotFoundException ex) {
+        }
+    }
+
+    @Test
+    public void testUnpack() throws IOException {
+        File target = new File(tmp, "out/a.txt");
+        OutputContainer out = new OutputContainer(fs, container, conf);
+        out.add(target.toURI().toString(), createFile("a.txt", "alpha"));
+        out.close();
+        assertFalse(target.exists());
+
+        assertEquals(1, OutputContainer.unpackAll(fs, new Path(tmp.getAbsolutePath()), conf));
+        assertTrue(target.exists());
+        assertEquals(5, target.length());
+    }
+
+    @Test
+    public void testLargeFile() throws IOException {
+        conf.setLong(PropertyNames.OUTPUT_CONTAINER_MAX_SIZE, 4);
+        File target = new File(tmp, "out/a.txt");
+        OutputContainer out = new OutputContainer(fs, container, conf);
+        out.add(target.toURI().toString(), createFile("a.txt", "alpha"));
+        out.close();
+
+        assertTrue(target.exists());
+        assertEquals(5, target.length());
+        try {
+            OutputContainer.read(fs, container, target.toURI().toString());
+            fail("large file put into container");
+        } catch (FileNotFoundException ex) {
+        }
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = new File(tmp, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import eu.scape_project.pt.util.PropertyNames;
+
+public class StreamCodecsTest {
+
+    private static final byte[] CONTENT = "%!PS-Adobe-3.0\n".getBytes();
+
+    @Test
+    public void testDecompressByExtension() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set(PropertyNames.CODEC_STDIN, StreamCodecs.AUTO);
+        StreamCodecs codecs = new StreamCodecs(conf);
+
+        assertArrayEquals(CONTENT, readAll(codecs.decompress("hdfs:///in.ps.gz",
+                        new ByteArrayInputStream(gzip(CONTENT)))));
+        InputStream plain = new ByteArrayInputStream(CONTENT);
+        assertSame(plain, codecs.decompress("hdfs:///in.ps", plain));
+    }
+
+    @Test
+    public void testCompressByName() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set(PropertyNames.CODEC_STDOUT, "gzip");
+        StreamCodecs codecs = new StreamCodecs(conf);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = codecs.compress("hdfs:///out.xml", bytes);
+        out.write(CONTENT);
+        out.close();
+        assertArrayEquals(CONTENT, readAll(new GZIPInputStream(
+                        new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void testNone() throws IOException {
+        StreamCodecs codecs = new StreamCodecs(new Configuration());
+        InputStream in = new ByteArrayInputStream(CONTENT);
+        assertSame(in, codecs.decompress("hdfs:///in.ps.gz", in));
+        OutputStream out = new ByteArrayOutputStream();
+        assertSame(out, codecs.compress("hdfs:///out.xml.gz", out));
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while( (n = in.read(buffer)) != -1 ) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+}
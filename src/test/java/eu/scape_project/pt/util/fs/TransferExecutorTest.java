@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TransferExecutorTest {
+
+    @Test
+    public void testNestedTransfers() throws Exception {
+        TransferExecutor.configure(2);
+        final AtomicInteger count = new AtomicInteger();
+        List<Callable<Void>> transfers = new ArrayList<Callable<Void>>();
+        for( int i = 0; i < 8; i++ ) {
+            transfers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // eg. a directory whose files are transferred in parallel
+                    List<Callable<Void>> nested = new ArrayList<Callable<Void>>();
+                    for( int j = 0; j < 8; j++ ) {
+                        nested.add(new Callable<Void>() {
+                            @Override
+                            public Void call() throws InterruptedException {
+                                Thread.sleep(1);
+                                count.incrementAndGet();
+                                return null;
+                            }
+                        });
+                    }
+                    TransferExecutor.runAll(nested);
+                    return null;
+                }
+            });
+        }
+        TransferExecutor.runAll(transfers);
+        assertEquals(64, count.get());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        List<Callable<Void>> transfers = new ArrayList<Callable<Void>>();
+        for( int i = 0; i < 4; i++ ) {
+            final int n = i;
+            transfers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    if( n == 2 ) throw new IOException("transfer " + n + " failed");
+                    return null;
+                }
+            });
+        }
+        try {
+            TransferExecutor.runAll(transfers);
+            fail("failure not reported");
+        } catch (IOException ex) {
+            assertEquals("transfer 2 failed", ex.getMessage());
+        }
+    }
+
+}
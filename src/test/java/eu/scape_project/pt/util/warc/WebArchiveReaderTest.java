@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 ait.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.scape_project.pt.util.warc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class WebArchiveReaderTest {
+
+    private static final int RECORDS = 50;
+
+    @Test
+    public void testWarc() throws IOException {
+        byte[] warc = warc(false);
+        List<String> ids = new ArrayList<String>();
+        WebArchiveReader reader = new WebArchiveReader(
+                new ByteArrayInputStream(warc), false, 0, warc.length, null);
+        WebArchiveRecord record;
+        while( (record = reader.next()) != null ) {
+            ids.add(record.getId());
+            if( record.getType().equals("response") ) {
+                assertEquals(payload(ids.size() / 2 - 1), read(record.getPayload()));
+            }
+        }
+        assertEquals(2 * RECORDS, ids.size());
+        assertEquals("<urn:uuid:response-0>", ids.get(1));
+    }
+
+    @Test
+    public void testTypes() throws IOException {
+        byte[] warc = warc(true);
+        WebArchiveReader reader = new WebArchiveReader(new ByteArrayInputStream(warc), 
+                true, 0, warc.length, new HashSet<String>(Arrays.asList("response")));
+        for( int i = 0; i < RECORDS; i++ ) {
+            WebArchiveRecord record = reader.next();
+            assertEquals("<urn:uuid:response-" + i + ">", record.getId());
+            // payloads may be left unread
+            if( i % 2 == 0 ) assertEquals(payload(i), read(record.getPayload()));
+        }
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testSplitWarc() throws IOException {
+        assertSplitReadsAll(warc(false), false);
+    }
+
+    @Test
+    public void testSplitCompressedWarc() throws IOException {
+        assertSplitReadsAll(warc(true), true);
+    }
+
+    @Test
+    public void testArc() throws IOException {
+        ByteArrayOutputStream arc = new ByteArrayOutputStream();
+        String desc = "1 0 Test\nURL IP-address Archive-date Content-type Archive-length\n";
+        arc.write(("filedesc://test.arc 0.0.0.0 20130101000000 text/plain " 
+                    + desc.length() + "\n" + desc + "\n").getBytes("UTF-8"));
+        for( int i = 0; i < RECORDS; i++ ) {
+            byte[] payload = payload(i).getBytes("UTF-8");
+            arc.write(("http://example.org/" + i + " 127.0.0.1 20130101000000 text/plain "
+                        + payload.length + "\n").getBytes("UTF-8"));
+            arc.write(payload);
+            arc.write('\n');
+        }
+        byte[] bytes = arc.toByteArray();
+        WebArchiveReader reader = new WebArchiveReader(new ByteArrayInputStream(bytes), 
+                false, 0, bytes.length, new HashSet<String>(Arrays.asList("response")));
+        for( int i = 0; i < RECORDS; i++ ) {
+            WebArchiveRecord record = reader.next();
+            assertEquals("http://example.org/" + i + " 20130101000000", record.getId());
+            assertEquals(payload(i), read(record.getPayload()));
+        }
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testRefs() {
+        String ref = "warc:hdfs:///crawl/a.warc.gz";
+        assertEquals("hdfs:///crawl/a.warc.gz", WebArchiveReader.getFileRef(ref));
+        assertNull(WebArchiveReader.getRange(ref));
+        String rangeRef = WebArchiveReader.getRangeRef(ref, 10, 20);
+        assertEquals("hdfs:///crawl/a.warc.gz", WebArchiveReader.getFileRef(rangeRef));
+        assertEquals(20, WebArchiveReader.getRange(rangeRef)[1]);
+        assertEquals(rangeRef, WebArchiveReader.getRangeRef(rangeRef, 10, 20));
+    }
+
+    /**
+     * Reads the file in ranges of all sizes and checks that each record is
+     * read exactly once.
+     */
+    private static void assertSplitReadsAll(byte[] warc, boolean compressed) 
+            throws IOException {
+        for( int size = 100; size < warc.length; size += 97 ) {
+            List<String> ids = new ArrayList<String>();
+            for( long start = 0; start < warc.length; start += size ) {
+                WebArchiveReader reader = new WebArchiveReader(new ByteArrayInputStream(warc), 
+                        compressed, start, Math.min(start + size, warc.length), null);
+                WebArchiveRecord record;
+                while( (record = reader.next()) != null ) {
+                    ids.add(record.getId());
+                }
+            }
+            assertEquals("range size " + size, 2 * RECORDS, ids.size());
+            assertEquals(2 * RECORDS, new HashSet<String>(ids).size());
+        }
+    }
+
+    private static byte[] warc(boolean compressed) throws IOException {
+        ByteArrayOutputStream warc = new ByteArrayOutputStream();
+        for( int i = 0; i < RECORDS; i++ ) {
+            record(warc, compressed, "request", "request-" + i, "GET /" + i + " HTTP/1.0\r\n\r\n");
+            record(warc, compressed, "response", "response-" + i, payload(i));
+        }
+        return warc.toByteArray();
+    }
+
+    private static void record(OutputStream warc, boolean compressed, String type,
+            String id, String payload) throws IOException {
+        OutputStream out = compressed ? new GZIPOutputStream(warc) : warc;
+        byte[] block = payload.getBytes("UTF-8");
+        out.write(("WARC/1.0\r\nWARC-Type: " + type + "\r\nWARC-Record-ID: <urn:uuid:" + id 
+                    + ">\r\nContent-Length: " + block.length + "\r\n\r\n").getBytes("UTF-8"));
+        out.write(block);
+        out.write("\r\n\r\n".getBytes("UTF-8"));
+        if( compressed ) ((GZIPOutputStream)out).finish();
+    }
+
+    private static String payload(int i) {
+        StringBuilder sb = new StringBuilder("HTTP/1.0 200 OK\r\n\r\n");
+        for( int j = 0; j < i; j++ ) {
+            sb.append("line ").append(j).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int n;
+        while( (n = in.read(buffer)) != -1 ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+}
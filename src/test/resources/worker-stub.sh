@@ -0,0 +1,13 @@
+#!/bin/sh
+# Stub of a warm worker speaking ToMaR's worker protocol: reads one request
+# per line from stdin and answers with output lines followed by a line
+# "%%TOMAR-END%% {exit code}". Requests starting with "fail" exit with 1.
+n=0
+while IFS= read -r request; do
+    n=$((n+1))
+    echo "worker $$ request $n: $request"
+    case "$request" in
+        fail*) echo "%%TOMAR-END%% 1" ;;
+        *) echo "%%TOMAR-END%% 0" ;;
+    esac
+done